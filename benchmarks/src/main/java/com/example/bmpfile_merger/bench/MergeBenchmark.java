@@ -0,0 +1,122 @@
+package com.example.bmpfile_merger.bench;
+
+import com.example.bmpfile_merger.BmpImage;
+import com.example.bmpfile_merger.BmpMerger;
+import com.example.bmpfile_merger.MergeSchedule;
+import com.example.bmpfile_merger.PreviewSampler;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Benchmarks for the hot paths: reading, scanning, merging, preview rendering and writing.
+ * <p>
+ * Besides operations per second, every benchmark counts the pixels it processed in the
+ * {@code pixels} secondary result, which JMH reports as pixels per second.
+ * The forks run with the SIMD row kernels; compare against the scalar ones with
+ * {@code -jvmArgsAppend -Dbmpmerger.kernels=scalar}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class MergeBenchmark {
+
+    @Param({"4097", "16385"})
+    public int width; // Width of the body; the border and output are 1 pixel narrower
+
+    @Param({"4096"})
+    public int height;
+
+    @Param({"0.5"})
+    public double whiteLastBitDensity;
+
+    @Param({"512"})
+    public int borderHeight;
+
+    private BmpImage body;
+    private BmpImage border;
+    private BmpImage merged;
+    private MergeSchedule schedule;
+    private File bodyFile;
+    private File outputFile;
+
+    /**
+     * Per-thread pixel counter, reported by JMH as a throughput.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Pixels {
+        public long pixels;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            pixels = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        body = SyntheticBmp.body(width, height, whiteLastBitDensity, 1);
+        border = SyntheticBmp.border(width, borderHeight, 2);
+        schedule = MergeSchedule.scan(body);
+        merged = BmpMerger.merge(body, border, schedule);
+
+        bodyFile = Files.createTempFile("bench-body", ".bmp").toFile();
+        outputFile = Files.createTempFile("bench-out", ".bmp").toFile();
+        body.write(bodyFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        bodyFile.delete();
+        outputFile.delete();
+    }
+
+    @Benchmark
+    public BmpImage read(Pixels counter) throws IOException {
+        counter.pixels += (long) width * height;
+        return BmpImage.read(bodyFile);
+    }
+
+    @Benchmark
+    public MergeSchedule scanLastBitColumn(Pixels counter) {
+        counter.pixels += height; // One pixel per row is inspected
+        return MergeSchedule.scan(body);
+    }
+
+    @Benchmark
+    public BmpImage mergeRows(Pixels counter) {
+        counter.pixels += (long) merged.width * height;
+        return BmpMerger.merge(body, border, schedule);
+    }
+
+    @Benchmark
+    public byte[] preview(Pixels counter) {
+        counter.pixels += (long) merged.width * height;
+        int previewWidth = 800;
+        return PreviewSampler.render(merged, 0, 0, merged.width, merged.height,
+                previewWidth, Math.max(1, (int) ((long) merged.height * previewWidth / merged.width)));
+    }
+
+    @Benchmark
+    public void write(Pixels counter) throws IOException {
+        counter.pixels += (long) merged.width * height;
+        merged.write(outputFile);
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.bmpfile_merger.bench;
+
+import com.example.bmpfile_merger.LatencyHistogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load generator for the merge server ({@code bmpfile_merger --serve}): a number of
+ * clients send merge requests back to back for a while, then throughput, latency percentiles and
+ * the count of each response status are printed.
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.example.bmpfile_merger.bench.ServerLoadTest \
+ *     --url http://127.0.0.1:8080 [--clients 16] [--seconds 30] [--upload] [--body file1.bmp --border file2.bmp]
+ * </pre>
+ * Without {@code --body} and {@code --border}, a random 2048x4096 pair is generated. With
+ * {@code --upload} the images are sent as multipart uploads instead of as local paths.
+ */
+public final class ServerLoadTest {
+
+    private ServerLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = "http://127.0.0.1:8080";
+        int clients = 16;
+        int seconds = 30;
+        boolean upload = false;
+        File body = null;
+        File border = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--url" -> url = args[++i];
+                case "--clients" -> clients = Integer.parseInt(args[++i]);
+                case "--seconds" -> seconds = Integer.parseInt(args[++i]);
+                case "--upload" -> upload = true;
+                case "--body" -> body = new File(args[++i]);
+                case "--border" -> border = new File(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (body == null || border == null) {
+            body = File.createTempFile("load-body", ".bmp");
+            border = File.createTempFile("load-border", ".bmp");
+            body.deleteOnExit();
+            border.deleteOnExit();
+            SyntheticBmp.body(2048, 4096, 0.5, 1).write(body);
+            SyntheticBmp.border(2048, 512, 2).write(border);
+        }
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        HttpRequest request = upload ? uploadRequest(url, body, border) : pathRequest(url, body, border);
+
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLong responseBytes = new AtomicLong();
+        ConcurrentHashMap<String, AtomicLong> outcomes = new ConcurrentHashMap<>();
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            threads.add(Thread.ofVirtual().start(() -> {
+                while (System.nanoTime() < end) {
+                    long sent = System.nanoTime();
+                    String outcome;
+                    try {
+                        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                        try (InputStream in = response.body()) {
+                            responseBytes.addAndGet(in.transferTo(OutputStream.nullOutputStream()));
+                        }
+                        outcome = String.valueOf(response.statusCode());
+                    } catch (IOException e) {
+                        outcome = e.getClass().getSimpleName();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    latency.record(System.nanoTime() - sent);
+                    outcomes.computeIfAbsent(outcome, key -> new AtomicLong()).incrementAndGet();
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf(Locale.ROOT, "%d requests in %.1f s with %d clients: %.1f req/s, %.1f MB/s%n",
+                latency.count(), elapsed, clients, latency.count() / elapsed, responseBytes.get() / 1e6 / elapsed);
+        System.out.printf(Locale.ROOT, "latency ms: p50 %.2f, p90 %.2f, p99 %.2f, max %.2f%n",
+                latency.percentile(50) / 1e6, latency.percentile(90) / 1e6, latency.percentile(99) / 1e6, latency.max() / 1e6);
+        System.out.println("responses: " + outcomes);
+    }
+
+    private static HttpRequest pathRequest(String url, File body, File border) {
+        String query = "body=" + URLEncoder.encode(body.getAbsolutePath(), StandardCharsets.UTF_8)
+                + "&border=" + URLEncoder.encode(border.getAbsolutePath(), StandardCharsets.UTF_8);
+        return HttpRequest.newBuilder(URI.create(url + "/merge?" + query))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+    }
+
+    private static HttpRequest uploadRequest(String url, File body, File border) throws IOException {
+        String boundary = UUID.randomUUID().toString();
+        return HttpRequest.newBuilder(URI.create(url + "/merge"))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.concat(
+                        HttpRequest.BodyPublishers.ofString(partHeader(boundary, "body", body, true)),
+                        HttpRequest.BodyPublishers.ofFile(body.toPath()),
+                        HttpRequest.BodyPublishers.ofString(partHeader(boundary, "border", border, false)),
+                        HttpRequest.BodyPublishers.ofFile(border.toPath()),
+                        HttpRequest.BodyPublishers.ofString("\r\n--" + boundary + "--\r\n")))
+                .build();
+    }
+
+    private static String partHeader(String boundary, String field, File file, boolean first) {
+        return (first ? "" : "\r\n") + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"" + field + "\"; filename=\"" + file.getName() + "\"\r\n"
+                + "Content-Type: image/bmp\r\n\r\n";
+    }
+}
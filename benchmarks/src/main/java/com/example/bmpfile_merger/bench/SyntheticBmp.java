@@ -0,0 +1,57 @@
+package com.example.bmpfile_merger.bench;
+
+import com.example.bmpfile_merger.BmpImage;
+
+import java.util.SplittableRandom;
+
+/**
+ * Generates random 1bpp images for the benchmarks.
+ */
+public final class SyntheticBmp {
+
+    private SyntheticBmp() {
+    }
+
+    /**
+     * Generates a body image (file1).
+     * @param width The width in pixels, including the last-bit column.
+     * @param height The height in pixels.
+     * @param whiteLastBitDensity The fraction of rows whose last pixel is white, i.e. taken from the border.
+     * @param seed The random seed.
+     * @return A heap-backed image with random pixels.
+     */
+    public static BmpImage body(int width, int height, double whiteLastBitDensity, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        BmpImage image = random(width, height, random);
+
+        int lastBitX = width - 1;
+        int mask = 1 << (7 - (lastBitX % 8));
+        byte[] pixels = image.pixelData.array();
+        for (int y = 0; y < height; y++) {
+            int index = image.rowOffset(y) + lastBitX / 8;
+            if (random.nextDouble() < whiteLastBitDensity) {
+                pixels[index] |= (byte) mask;
+            } else {
+                pixels[index] &= (byte) ~mask;
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Generates a border image (file2) for a body of the given width.
+     * @param bodyWidth The width of the body image; the border is 1 pixel narrower.
+     * @param borderHeight The height of the border.
+     * @param seed The random seed.
+     * @return A heap-backed image with random pixels.
+     */
+    public static BmpImage border(int bodyWidth, int borderHeight, long seed) {
+        return random(bodyWidth - 1, borderHeight, new SplittableRandom(seed));
+    }
+
+    private static BmpImage random(int width, int height, SplittableRandom random) {
+        byte[] pixels = new byte[BmpImage.paddedRowSize(width) * height];
+        random.nextBytes(pixels);
+        return new BmpImage(width, height, pixels);
+    }
+}
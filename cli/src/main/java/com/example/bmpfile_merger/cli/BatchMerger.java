@@ -0,0 +1,323 @@
+package com.example.bmpfile_merger.cli;
+
+import com.example.bmpfile_merger.BmpImage;
+import com.example.bmpfile_merger.BmpMerger;
+import com.example.bmpfile_merger.BorderCache;
+import com.example.bmpfile_merger.MergeMetrics;
+import com.example.bmpfile_merger.MergeMonitor;
+import com.example.bmpfile_merger.MergeSchedule;
+import com.example.bmpfile_merger.OutputFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Runs many merges on a bounded pool of worker threads. A failing pair (unreadable file,
+ * width mismatch, ...) is reported in its {@link Result} and does not stop the others.
+ * <p>
+ * Jobs that share a body file fan out from a single pass over it: the body is mapped and its
+ * {@link MergeSchedule} scanned once, then every border is merged and written by its own worker,
+ * concurrently with the others. Each border still gets its own rollover, since the schedule
+ * only counts border rows and every merge wraps that count by the height of its own border.
+ */
+public class BatchMerger {
+
+    /**
+     * The outcome of one {@link MergeJob}.
+     * @param job The job.
+     * @param error Why the job failed, or null if it succeeded.
+     * @param nanos How long the job took.
+     */
+    public record Result(MergeJob job, Exception error, long nanos) {
+        public boolean succeeded() {
+            return error == null;
+        }
+    }
+
+    /**
+     * A body image and its schedule, computed once for all jobs that merge the same body.
+     */
+    private record ScannedBody(BmpImage image, MergeSchedule schedule) {
+    }
+
+    /**
+     * Maps and scans a body file on first use and hands the result, or the failure, to every
+     * job sharing it. Callers block while another worker is still scanning it. The image is
+     * dropped once the last job using it has finished.
+     */
+    private final class SharedBody {
+        private final File file;
+        private int jobs; // Jobs that have not finished yet
+        private ScannedBody scanned;
+        private Exception error;
+
+        SharedBody(File file) {
+            this.file = file;
+        }
+
+        synchronized ScannedBody get() throws IOException {
+            if (scanned == null && error == null) {
+                try {
+                    scanned = scan(file);
+                } catch (IOException | RuntimeException e) {
+                    error = e;
+                }
+            }
+            if (error instanceof IOException ioException) {
+                throw ioException;
+            } else if (error != null) {
+                throw (RuntimeException) error;
+            }
+            return scanned;
+        }
+
+        synchronized void addJob() {
+            jobs++;
+        }
+
+        synchronized void jobDone() {
+            if (--jobs == 0) {
+                scanned = null;
+            }
+        }
+    }
+
+    private final int threads;
+    private final boolean streaming;
+    private final OutputFormat format;
+    private final BorderCache borderCache;
+    private final MergeMetrics metrics;
+
+    /**
+     * @param threads The number of worker threads.
+     * @param streaming Whether to use {@link BmpMerger#mergeStreaming} instead of merging in memory.
+     * @param borderCache Where border images are looked up, so each is read from disk once.
+     * @param metrics Receives the timings of every stage.
+     */
+    public BatchMerger(int threads, boolean streaming, BorderCache borderCache, MergeMetrics metrics) {
+        this(threads, streaming, OutputFormat.BMP, borderCache, metrics);
+    }
+
+    /**
+     * @param threads The number of worker threads.
+     * @param streaming Whether to use {@link BmpMerger#mergeStreaming} instead of merging in memory.
+     *                  It only writes BMP.
+     * @param format The format the outputs are written in.
+     * @param borderCache Where border images are looked up, so each is read from disk once.
+     * @param metrics Receives the timings of every stage.
+     */
+    public BatchMerger(int threads, boolean streaming, OutputFormat format, BorderCache borderCache, MergeMetrics metrics) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, got " + threads);
+        }
+        if (streaming && format != OutputFormat.BMP) {
+            throw new IllegalArgumentException("Streaming merges only write BMP, not " + format);
+        }
+        this.threads = threads;
+        this.streaming = streaming;
+        this.format = format;
+        this.borderCache = borderCache;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return The format the outputs are written in.
+     */
+    public OutputFormat format() {
+        return format;
+    }
+
+    /**
+     * Merges all jobs and waits for them to finish.
+     * @param jobs The pairs to merge.
+     * @param listener Called on the calling thread with each result as soon as it completes.
+     * @return The results, in completion order.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     * @throws IllegalArgumentException If two jobs would write the same output file; nothing is merged then.
+     */
+    public List<Result> run(List<MergeJob> jobs, Consumer<Result> listener) throws InterruptedException {
+        checkDistinctOutputs(jobs);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CompletionService<Result> completion = new ExecutorCompletionService<>(executor);
+            Map<File, SharedBody> bodies = new HashMap<>();
+            for (MergeJob job : jobs) {
+                SharedBody body = bodies.computeIfAbsent(job.body().getAbsoluteFile(), SharedBody::new);
+                body.addJob();
+                completion.submit(() -> mergeJob(job, body));
+            }
+
+            List<Result> results = new ArrayList<>(jobs.size());
+            for (int i = 0; i < jobs.size(); i++) {
+                Result result;
+                try {
+                    result = completion.take().get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Merge task failed unexpectedly", e.getCause()); // mergeJob catches everything
+                }
+                results.add(result);
+                listener.accept(result);
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Fails if two jobs would write the same file, e.g. the same body listed twice or two body
+     * directories holding the same file name; their workers would overwrite each other's output.
+     */
+    static void checkDistinctOutputs(List<MergeJob> jobs) {
+        Map<Path, MergeJob> outputs = new HashMap<>();
+        for (MergeJob job : jobs) {
+            MergeJob previous = outputs.putIfAbsent(job.output().toPath().toAbsolutePath().normalize(), job);
+            if (previous != null) {
+                throw new IllegalArgumentException("Both " + previous.body() + " and " + job.body()
+                        + " would be written to " + job.output() + ".");
+            }
+        }
+    }
+
+    private Result mergeJob(MergeJob job, SharedBody body) {
+        long start = System.nanoTime();
+        try {
+            mergeFile(job, body);
+            return new Result(job, null, System.nanoTime() - start);
+        } catch (IOException | RuntimeException e) {
+            return new Result(job, e, System.nanoTime() - start);
+        } finally {
+            body.jobDone();
+        }
+    }
+
+    /**
+     * Merges a single pair. This is the same merge as the UI performs, minus the preview.
+     * <p>
+     * The output is written to a hidden temporary file next to it and then renamed into place,
+     * so readers of the output directory never see a partially written image. The temporary
+     * name is unique, so concurrent merges into the same output cannot corrupt each other;
+     * the last one to finish wins.
+     * @param job The pair to merge.
+     * @throws IOException If an input cannot be read or the output cannot be written.
+     * @throws IllegalArgumentException If the width condition is not met.
+     */
+    public void mergeFile(MergeJob job) throws IOException {
+        mergeFile(job, new SharedBody(job.body()));
+    }
+
+    private void mergeFile(MergeJob job, SharedBody body) throws IOException {
+        if (job.output().getAbsoluteFile().equals(job.body().getAbsoluteFile())
+                || job.output().getAbsoluteFile().equals(job.border().getAbsoluteFile())) {
+            throw new IOException("Output file " + job.output() + " would overwrite one of its inputs.");
+        }
+
+        try {
+            BmpImage file2Bmp = borderCache.get(job.border());
+            Path output = job.output().toPath();
+            Path temporary = createPartFile(output);
+            try {
+                if (streaming) {
+                    mergeStreaming(job, file2Bmp, temporary);
+                } else {
+                    mergeInMemory(job, body.get(), file2Bmp, temporary);
+                }
+                moveAtomically(temporary, output);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException | RuntimeException e) {
+            metrics.addFailure();
+            throw e;
+        }
+    }
+
+    private ScannedBody scan(File body) throws IOException {
+        String name = body.getName();
+
+        BmpImage file1Bmp;
+        try (MergeMetrics.StageTimer timer = metrics.start(MergeMetrics.Stage.READ, name)) {
+            file1Bmp = BmpImage.map(body);
+            timer.bytes(file1Bmp.pixelData.capacity());
+        }
+
+        try (MergeMetrics.StageTimer timer = metrics.start(MergeMetrics.Stage.SCAN, name)) {
+            MergeSchedule schedule = MergeSchedule.scan(file1Bmp);
+            timer.bytes(file1Bmp.height); // One byte per row is inspected
+            return new ScannedBody(file1Bmp, schedule);
+        }
+    }
+
+    private void mergeInMemory(MergeJob job, ScannedBody body, BmpImage file2Bmp, Path temporary) throws IOException {
+        String name = job.body().getName();
+        BmpImage file1Bmp = body.image();
+        MergeSchedule schedule = body.schedule();
+        BmpMerger.checkWidths(file1Bmp, file2Bmp);
+
+        // Merged rows go straight to the file, each write buffer filled in parallel stripes;
+        // disk writes overlap with merging the next buffer
+        try (MergeMetrics.StageTimer timer = metrics.start(MergeMetrics.Stage.MERGE_WRITE, name);
+             FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            BmpMerger.mergeTo(file1Bmp, file2Bmp, schedule, format, channel, MergeMonitor.NONE);
+            timer.bytes(channel.size());
+        }
+        metrics.addRows(file1Bmp.height - schedule.borderRowCount(), schedule.borderRowCount());
+    }
+
+    private void mergeStreaming(MergeJob job, BmpImage file2Bmp, Path temporary) throws IOException {
+        try (MergeMetrics.StageTimer timer = metrics.start(MergeMetrics.Stage.STREAMING_MERGE, job.body().getName())) {
+            int borderRows = BmpMerger.mergeStreaming(job.body(), file2Bmp, temporary.toFile());
+            long outputBytes = Files.size(temporary);
+            timer.bytes(outputBytes);
+            long rows = (outputBytes - BmpImage.PIXEL_DATA_OFFSET) / BmpImage.paddedRowSize(file2Bmp.width);
+            metrics.addRows(rows - borderRows, borderRows);
+        }
+    }
+
+    /**
+     * Creates an empty hidden file next to an output, to write it under before renaming it
+     * into place. Every call gets a file of its own.
+     */
+    static Path createPartFile(Path output) throws IOException {
+        Path absolute = output.toAbsolutePath();
+        while (true) {
+            Path part = absolute.resolveSibling("." + absolute.getFileName() + "."
+                    + Integer.toHexString(ThreadLocalRandom.current().nextInt()) + ".part");
+            try {
+                return Files.createFile(part);
+            } catch (FileAlreadyExistsException e) {
+                // Taken by another merge, try another name
+            }
+        }
+    }
+
+    /**
+     * Renames a file over another one atomically where the file system supports it.
+     */
+    static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.example.bmpfile_merger.cli;
+
+import com.example.bmpfile_merger.BorderCache;
+import com.example.bmpfile_merger.MergeMetrics;
+import com.example.bmpfile_merger.OutputFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Headless command-line entry point. Merges body/border pairs in parallel without starting JavaFX.
+ */
+public final class MergeCli {
+
+    static final String USAGE = String.join(System.lineSeparator(),
+            "Usage:",
+            "  bmpmerge --border <file2.bmp> [--border ...] --body <file1.bmp|dir> [--body ...] --out <dir> [options]",
+            "  bmpmerge --manifest <pairs.csv> [--out <dir>] [options]",
+            "  bmpmerge --watch <spool dir> --border <file2.bmp> --out <dir> [options]",
+            "  bmpmerge --serve <port> [options]",
+            "",
+            "A manifest has one pair per line: body,border[,output]. Relative paths are resolved",
+            "against the manifest's directory; lines starting with # are ignored. Pairs without an",
+            "output are written to --out under the body's file name.",
+            "",
+            "With several --border options every body is read and scanned once and merged with",
+            "each border in parallel; the outputs are named <body>_<border>.bmp.",
+            "",
+            "--format pbm or tiff writes binary PBM or CCITT Group 4 TIFF instead of BMP; the .bmp",
+            "extension of output names derived from the bodies becomes .pbm or .tif.",
+            "",
+            "--watch keeps running and merges every .bmp file written or moved into the spool",
+            "directory once it has stopped changing. Merged bodies are moved to processed/ and",
+            "failed ones to failed/ inside the spool directory. Stop it with Ctrl+C.",
+            "",
+            "--serve listens on 127.0.0.1 and merges POST /merge requests: body and border as paths",
+            "(?body=<file1.bmp>&border=<file2.bmp>) or as multipart/form-data fields, uploaded or",
+            "holding a path. The merged image is streamed back, as BMP unless format=pbm or",
+            "format=tiff is given. GET /metrics shows timings and latencies.",
+            "Stop it with Ctrl+C.",
+            "",
+            "Options:",
+            "  --threads <n>   Number of parallel merges (default: number of CPU cores)",
+            "  --format <f>    Output format: bmp, pbm or tiff (default: bmp)",
+            "  --streaming     Stream body files from disk instead of loading them (for very tall images,",
+            "                  BMP output only)",
+            "  --border-cache-mb <n>  Memory for parsed border images, least recently used are dropped (default: 256)",
+            "  --queue <n>     With --watch: complete files that may wait for a worker;",
+            "                  with --serve: requests that may wait for a merge slot (default: 64)",
+            "  --wait-ms <n>   With --serve: how long a request may wait for a merge slot before it is",
+            "                  answered with 503 (default: 30000)",
+            "  --upload-mb <n>  With --serve: disk space for uploaded borders; larger uploads are answered",
+            "                  with 413, and ones that only fit once other requests are done with 503 (default: 1024)",
+            "  --body-upload-mb <n>  With --serve: largest uploaded body; larger ones are answered with 413",
+            "                  (default: 4096)",
+            "  --quiet-ms <n>  With --watch: how long a file must stay unchanged before merging (default: 1000)",
+            "  --metrics <file>  Also write the per-stage timing summary to this file");
+
+    private final PrintStream out;
+    private final PrintStream err;
+
+    MergeCli(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main(String[] args) {
+        System.exit(new MergeCli(System.out, System.err).run(args));
+    }
+
+    /**
+     * Runs the command line.
+     * @param args The arguments.
+     * @return The process exit code: 0 if every pair merged, 1 if some failed, 2 on bad usage.
+     */
+    int run(String[] args) {
+        List<File> bodies = new ArrayList<>();
+        List<File> borders = new ArrayList<>();
+        File outDir = null;
+        File manifest = null;
+        File spoolDir = null;
+        int port = -1;
+        int queueCapacity = 64;
+        long waitMillis = 30_000;
+        long quietMillis = 1000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean streaming = false;
+        OutputFormat format = OutputFormat.BMP;
+        long borderCacheBytes = BorderCache.DEFAULT_MAX_BYTES;
+        long uploadBytes = MergeServer.DEFAULT_MAX_BORDER_BYTES;
+        long bodyUploadBytes = MergeServer.DEFAULT_MAX_BODY_BYTES;
+        File metricsFile = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--body" -> bodies.add(new File(value(args, ++i)));
+                    case "--border" -> borders.add(new File(value(args, ++i)));
+                    case "--out" -> outDir = new File(value(args, ++i));
+                    case "--manifest" -> manifest = new File(value(args, ++i));
+                    case "--watch" -> spoolDir = new File(value(args, ++i));
+                    case "--serve" -> port = Integer.parseInt(value(args, ++i));
+                    case "--queue" -> queueCapacity = Integer.parseInt(value(args, ++i));
+                    case "--wait-ms" -> waitMillis = Long.parseLong(value(args, ++i));
+                    case "--quiet-ms" -> quietMillis = Long.parseLong(value(args, ++i));
+                    case "--threads" -> threads = Integer.parseInt(value(args, ++i));
+                    case "--streaming" -> streaming = true;
+                    case "--format" -> format = OutputFormat.of(value(args, ++i));
+                    case "--border-cache-mb" -> borderCacheBytes = Long.parseLong(value(args, ++i)) << 20;
+                    case "--upload-mb" -> uploadBytes = Long.parseLong(value(args, ++i)) << 20;
+                    case "--body-upload-mb" -> bodyUploadBytes = Long.parseLong(value(args, ++i)) << 20;
+                    case "--metrics" -> metricsFile = new File(value(args, ++i));
+                    case "--help", "-h" -> {
+                        out.println(USAGE);
+                        return 0;
+                    }
+                    default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+            if (threads < 1) {
+                throw new IllegalArgumentException("--threads must be at least 1.");
+            }
+            if (borderCacheBytes < 0) {
+                throw new IllegalArgumentException("--border-cache-mb must not be negative.");
+            }
+            if (streaming && format != OutputFormat.BMP) {
+                throw new IllegalArgumentException("--streaming only writes BMP.");
+            }
+
+            BorderCache borderCache = new BorderCache(borderCacheBytes);
+            MergeMetrics metrics = new MergeMetrics();
+            if (port >= 0) {
+                if (spoolDir != null || manifest != null || !bodies.isEmpty()) {
+                    throw new IllegalArgumentException("--serve takes its pairs from the requests, not from --watch, --manifest or --body.");
+                }
+                if (port > 65535 || queueCapacity < 0 || waitMillis < 0 || uploadBytes < 0 || bodyUploadBytes < 0) {
+                    throw new IllegalArgumentException("--serve needs a port up to 65535, --queue, --wait-ms, --upload-mb "
+                            + "and --body-upload-mb must not be negative.");
+                }
+                serve(port, threads, queueCapacity, waitMillis, borderCache, uploadBytes, bodyUploadBytes, metrics);
+                report(borderCache, metrics, metricsFile);
+                return 0;
+            }
+            if (spoolDir != null) {
+                if (borders.size() != 1 || outDir == null) {
+                    throw new IllegalArgumentException("--watch requires one --border and --out.");
+                }
+                watch(spoolDir, borders.get(0), outDir, new BatchMerger(1, streaming, format, borderCache, metrics), threads, queueCapacity, quietMillis);
+                report(borderCache, metrics, metricsFile);
+                return 0;
+            }
+
+            List<MergeJob> jobs = new ArrayList<>();
+            if (manifest != null) {
+                jobs.addAll(readManifest(manifest, outDir, format));
+            }
+            if (!bodies.isEmpty()) {
+                if (borders.isEmpty() || outDir == null) {
+                    throw new IllegalArgumentException("--body requires --border and --out.");
+                }
+                for (File body : expandBodies(bodies)) {
+                    for (File border : borders) {
+                        String name = borders.size() == 1 ? format.fileName(body.getName()) : fanOutName(body, border, format);
+                        jobs.add(new MergeJob(body, border, new File(outDir, name)));
+                    }
+                }
+            }
+            if (jobs.isEmpty()) {
+                throw new IllegalArgumentException("Nothing to merge.");
+            }
+            if (outDir != null) {
+                Files.createDirectories(outDir.toPath());
+            }
+
+            int exitCode = runJobs(jobs, new BatchMerger(threads, streaming, format, borderCache, metrics));
+            report(borderCache, metrics, metricsFile);
+            return exitCode;
+        } catch (IllegalArgumentException | IOException e) {
+            err.println("Error: " + e.getMessage());
+            err.println(USAGE);
+            return 2;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            err.println("Interrupted.");
+            return 1;
+        }
+    }
+
+    private void watch(File spoolDir, File border, File outDir, BatchMerger merger,
+                       int threads, int queueCapacity, long quietMillis) throws IOException, InterruptedException {
+        WatchFolderDaemon daemon = new WatchFolderDaemon(spoolDir.toPath(), border, outDir.toPath(), merger,
+                threads, queueCapacity, quietMillis, out);
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::close, "spool-shutdown"));
+        out.println("Watching " + spoolDir.getAbsolutePath() + " (Ctrl+C to stop)");
+        daemon.run();
+    }
+
+    private void serve(int port, int threads, int queueCapacity, long waitMillis, BorderCache borderCache,
+                       long uploadBytes, long bodyUploadBytes, MergeMetrics metrics) throws IOException, InterruptedException {
+        MergeServer server = new MergeServer(port, threads, queueCapacity, waitMillis, borderCache, uploadBytes,
+                bodyUploadBytes, metrics, err);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close, "server-shutdown"));
+        out.println("Serving on http://" + server.address().getHostString() + ":" + server.address().getPort()
+                + "/merge (Ctrl+C to stop)");
+        server.run();
+    }
+
+    /**
+     * Prints the stage timings and border cache counters of the run, and exports them if asked to.
+     */
+    private void report(BorderCache borderCache, MergeMetrics metrics, File metricsFile) throws IOException {
+        String summary = metrics.summary() + "border cache: " + borderCache.stats() + System.lineSeparator();
+        out.print(summary);
+        if (metricsFile != null) {
+            Files.writeString(metricsFile.toPath(), summary, StandardCharsets.UTF_8);
+        }
+    }
+
+    private int runJobs(List<MergeJob> jobs, BatchMerger merger) throws InterruptedException {
+        long start = System.nanoTime();
+        List<BatchMerger.Result> results = merger.run(jobs, result -> {
+            if (result.succeeded()) {
+                out.println("OK     " + result.job().body() + " -> " + result.job().output());
+            } else {
+                err.println("FAILED " + result.job().body() + ": " + result.error().getMessage());
+            }
+        });
+
+        long failed = results.stream().filter(result -> !result.succeeded()).count();
+        out.printf(Locale.ROOT, "Merged %d of %d pairs (%d failed) in %.1f s%n",
+                results.size() - failed, results.size(), failed, (System.nanoTime() - start) / 1e9);
+        return failed == 0 ? 0 : 1;
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    /**
+     * @return The output file name of a body merged with one of several borders: body_border.bmp,
+     *         or with the extension of another format.
+     */
+    static String fanOutName(File body, File border, OutputFormat format) {
+        return stripBmp(body.getName()) + "_" + stripBmp(border.getName()) + "." + format.extension();
+    }
+
+    private static String stripBmp(String name) {
+        return name.toLowerCase(Locale.ROOT).endsWith(".bmp") ? name.substring(0, name.length() - 4) : name;
+    }
+
+    /**
+     * Replaces every directory by the BMP files it contains, in name order.
+     */
+    static List<File> expandBodies(List<File> bodies) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (File body : bodies) {
+            if (body.isDirectory()) {
+                File[] children = body.listFiles((dir, name) -> name.toLowerCase(Locale.ROOT).endsWith(".bmp"));
+                if (children == null) {
+                    throw new IOException("Could not list directory " + body);
+                }
+                Arrays.sort(children);
+                files.addAll(Arrays.asList(children));
+            } else {
+                files.add(body);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Reads a manifest of body,border[,output] lines.
+     */
+    static List<MergeJob> readManifest(File manifest, File outDir, OutputFormat format) throws IOException {
+        File baseDir = manifest.getAbsoluteFile().getParentFile();
+        List<MergeJob> jobs = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+            lineNumber++;
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] fields = line.split(",");
+            if (fields.length < 2 || fields.length > 3) {
+                throw new IllegalArgumentException(manifest + ":" + lineNumber + ": expected body,border[,output]");
+            }
+            File body = resolve(baseDir, fields[0]);
+            File border = resolve(baseDir, fields[1]);
+            File output;
+            if (fields.length == 3) {
+                output = resolve(baseDir, fields[2]);
+            } else if (outDir != null) {
+                output = new File(outDir, format.fileName(body.getName()));
+            } else {
+                throw new IllegalArgumentException(manifest + ":" + lineNumber + ": no output given and no --out directory");
+            }
+            jobs.add(new MergeJob(body, border, output));
+        }
+        return jobs;
+    }
+
+    private static File resolve(File baseDir, String path) {
+        File file = new File(path.strip());
+        return file.isAbsolute() ? file : new File(baseDir, file.getPath());
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.bmpfile_merger.cli;
+
+import java.io.File;
+
+/**
+ * One body/border pair of a batch run and the file the merged image is written to.
+ * @param body The body image (file1).
+ * @param border The border image (file2).
+ * @param output The merged BMP file to create.
+ */
+public record MergeJob(File body, File border, File output) {
+}
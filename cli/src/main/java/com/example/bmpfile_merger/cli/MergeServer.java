@@ -0,0 +1,602 @@
+package com.example.bmpfile_merger.cli;
+
+import com.example.bmpfile_merger.BmpImage;
+import com.example.bmpfile_merger.BmpMerger;
+import com.example.bmpfile_merger.BorderCache;
+import com.example.bmpfile_merger.LatencyHistogram;
+import com.example.bmpfile_merger.MergeMetrics;
+import com.example.bmpfile_merger.MergeMonitor;
+import com.example.bmpfile_merger.MergeSchedule;
+import com.example.bmpfile_merger.OutputFormat;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded HTTP service that merges on request, for other programs on the same machine.
+ * <p>
+ * {@code POST /merge} takes the body and border image either as local paths, in the query
+ * string ({@code ?body=/data/a.bmp&border=/data/b.bmp}), or as {@code multipart/form-data}
+ * fields, which are uploads when they carry a file name and paths otherwise. The merged image
+ * is streamed into the response as it is merged: a BMP, or the format named by a {@code format}
+ * parameter or field ({@code bmp}, {@code pbm} or {@code tiff}). BMP and PBM responses announce
+ * their exact length up front; compressed TIFF responses are sent chunked.
+ * {@code GET /metrics} returns the stage timings, border cache counters and request latencies.
+ * <p>
+ * Every request runs on its own virtual thread, but only a fixed number of merges run at once.
+ * Further requests wait for a slot, up to a bounded number of them and for a bounded time;
+ * beyond that they are answered with 503 and a Retry-After header instead of piling up.
+ * Borders are parsed once and shared through the {@link BorderCache}: uploaded borders are
+ * stored under the digest of their content, so uploading the same border again is a cache hit.
+ * Stored borders take at most a fixed amount of disk space. A stored border is deleted when its
+ * cache entry is evicted, or to make room for a new one once it is not needed by a request
+ * anymore; a border larger than the whole space is answered with 413, and one that does not fit
+ * next to the borders in use with 503. Uploaded bodies are limited in size too, and deleted after
+ * their merge.
+ * <p>
+ * The service accepts paths of any file the server process can read, so it only listens on the
+ * loopback interface.
+ */
+public class MergeServer implements Closeable {
+
+    private static final int MAX_PATH_BYTES = 4096;
+    private static final int STOP_GRACE_SECONDS = 5; // How long running merges may take to finish on close
+
+    /** Default disk space for uploaded borders: 1 GB. */
+    public static final long DEFAULT_MAX_BORDER_BYTES = 1L << 30;
+
+    /** Default size limit of an uploaded body: 4 GB, the largest a BMP file can be. */
+    public static final long DEFAULT_MAX_BODY_BYTES = 1L << 32;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final int maxInFlight;
+    private final Semaphore slots;
+    private final int maxWaiting;
+    private final long waitMillis;
+    private final BorderCache borderCache;
+    private final MergeMetrics metrics;
+    private final Path uploadDir;
+    private final long maxBorderBytes;
+    private final long maxBodyBytes;
+    private final PrintStream log;
+
+    // Uploaded borders on disk with their sizes, least recently used first, and the number of
+    // requests that still have to parse each one; all guarded by storedBorders
+    private final LinkedHashMap<Path, Long> storedBorders = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Path, Integer> bordersInUse = new HashMap<>();
+    private long storedBorderBytes;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private final LatencyHistogram waitNanos = new LatencyHistogram();
+    private final LatencyHistogram requestNanos = new LatencyHistogram();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * The inputs of one merge request.
+     * @param body The body BMP file.
+     * @param border The border BMP file.
+     * @param bodyUploaded Whether the body is a temporary copy of an upload, deleted afterwards.
+     * @param borderUploaded Whether the border is a stored upload, released once it is parsed.
+     * @param format The format to answer with.
+     */
+    private record Inputs(File body, File border, boolean bodyUploaded, boolean borderUploaded, OutputFormat format) {
+    }
+
+    /**
+     * A request that cannot be merged as sent; answered with a 4xx status, or 503 if it may
+     * succeed later.
+     */
+    private static final class BadRequestException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        BadRequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Counts the bytes written to the response, whose length is not known in advance for
+     * compressed formats.
+     */
+    private static final class CountingChannel implements WritableByteChannel {
+        private final WritableByteChannel channel;
+        long written;
+
+        CountingChannel(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            int count = channel.write(source);
+            written += count;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * @param port The port to listen on, or 0 for any free port.
+     * @param maxInFlight The number of merges that may run at once.
+     * @param maxWaiting The number of requests that may wait for a free slot.
+     * @param waitMillis How long a request may wait for a slot before it is rejected.
+     * @param borderCache Where border images are looked up, shared by all requests. Evicting an
+     *                    uploaded border from it deletes the stored file.
+     * @param maxBorderBytes The disk space for uploaded borders.
+     * @param maxBodyBytes The size limit of an uploaded body.
+     * @param metrics Receives the timings of every stage.
+     * @param log Receives one line per failed request.
+     * @throws IOException If the port cannot be bound or the upload directory cannot be created.
+     */
+    public MergeServer(int port, int maxInFlight, int maxWaiting, long waitMillis,
+                       BorderCache borderCache, long maxBorderBytes, long maxBodyBytes, MergeMetrics metrics,
+                       PrintStream log) throws IOException {
+        if (maxInFlight < 1 || maxWaiting < 0 || waitMillis < 0 || maxBorderBytes < 0 || maxBodyBytes < 0) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1, maxWaiting, waitMillis, maxBorderBytes "
+                    + "and maxBodyBytes must not be negative.");
+        }
+        this.maxInFlight = maxInFlight;
+        this.slots = new Semaphore(maxInFlight, true); // Fair: waiting requests are served in arrival order
+        this.maxWaiting = maxWaiting;
+        this.waitMillis = waitMillis;
+        this.borderCache = borderCache;
+        this.maxBorderBytes = maxBorderBytes;
+        this.maxBodyBytes = maxBodyBytes;
+        this.metrics = metrics;
+        this.log = log;
+
+        // The real path, since the cache reports evicted files by their canonical path
+        this.uploadDir = Files.createTempDirectory("bmpmerge-uploads").toRealPath();
+        borderCache.setEvictionListener(file -> discardBorder(file.toPath()));
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(executor);
+        server.createContext("/merge", this::handleMerge);
+        server.createContext("/metrics", this::handleMetrics);
+    }
+
+    /**
+     * @return The address the server listens on; tells the port if it was chosen automatically.
+     */
+    public InetSocketAddress address() {
+        return server.getAddress();
+    }
+
+    /**
+     * Serves requests until {@link #close} is called.
+     * @throws InterruptedException If the calling thread is interrupted.
+     */
+    public void run() throws InterruptedException {
+        server.start();
+        stopped.await();
+    }
+
+    /**
+     * Stops accepting requests, gives running merges a few seconds to finish and removes the uploads.
+     */
+    @Override
+    public void close() {
+        if (stopped.getCount() == 0) {
+            return;
+        }
+        server.stop(STOP_GRACE_SECONDS);
+        executor.close();
+        deleteUploads();
+        stopped.countDown();
+    }
+
+    private void handleMerge(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendText(exchange, 405, "Use POST.");
+                return;
+            }
+            if (!acquireSlot()) {
+                rejected.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendText(exchange, 503, "Too many merges in progress, try again later.");
+                return;
+            }
+            try {
+                merge(exchange);
+            } finally {
+                slots.release();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.println("FAILED " + exchange.getRequestURI() + ": " + e.getMessage());
+        } finally {
+            requestNanos.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Waits for a merge slot, unless too many requests are waiting already.
+     * The upload is not read while waiting, so clients are held back by TCP flow control.
+     * @return False if the request has to be rejected.
+     */
+    private boolean acquireSlot() {
+        long start = System.nanoTime();
+        if (slots.tryAcquire()) {
+            waitNanos.record(0);
+            return true;
+        }
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            return false;
+        }
+        try {
+            boolean acquired = slots.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+            if (acquired) {
+                waitNanos.record(System.nanoTime() - start);
+            }
+            return acquired;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    private void merge(HttpExchange exchange) throws IOException {
+        Inputs inputs = null;
+        try {
+            inputs = readInputs(exchange);
+            String name = inputs.body().getName();
+            BmpImage file2Bmp;
+            try {
+                file2Bmp = borderCache.get(inputs.border());
+            } finally {
+                if (inputs.borderUploaded()) {
+                    releaseBorder(inputs.border().toPath()); // Parsed, or failed to; the file may go now
+                }
+            }
+
+            BmpImage file1Bmp;
+            try (MergeMetrics.StageTimer timer = metrics.start(MergeMetrics.Stage.READ, name)) {
+                file1Bmp = BmpImage.map(inputs.body());
+                timer.bytes(file1Bmp.pixelData.capacity());
+            }
+            MergeSchedule schedule;
+            try (MergeMetrics.StageTimer timer = metrics.start(MergeMetrics.Stage.SCAN, name)) {
+                schedule = MergeSchedule.scan(file1Bmp);
+                timer.bytes(file1Bmp.height);
+            }
+            // Fail before the status line goes out; mergeTo would only find out after it
+            BmpMerger.checkWidths(file1Bmp, file2Bmp);
+            BmpMerger.checkBorderHeight(file2Bmp, schedule);
+
+            OutputFormat format = inputs.format();
+            long size = format.size(file2Bmp.width, file1Bmp.height);
+            exchange.getResponseHeaders().set("Content-Type", format.mediaType());
+            exchange.sendResponseHeaders(200, size >= 0 ? size : 0); // 0: chunked, the length is not known yet
+            try (MergeMetrics.StageTimer timer = metrics.start(MergeMetrics.Stage.MERGE_WRITE, name);
+                 CountingChannel channel = new CountingChannel(Channels.newChannel(exchange.getResponseBody()))) {
+                BmpMerger.mergeTo(file1Bmp, file2Bmp, schedule, format, channel, MergeMonitor.NONE);
+                timer.bytes(channel.written);
+            }
+            metrics.addRows(file1Bmp.height - schedule.borderRowCount(), schedule.borderRowCount());
+        } catch (BadRequestException e) {
+            if (e.status == 503) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+            }
+            sendText(exchange, e.status, e.getMessage());
+        } catch (IOException | IllegalArgumentException e) {
+            metrics.addFailure();
+            if (exchange.getResponseCode() != -1) {
+                throw e; // Too late for an error status; the client sees a short response
+            }
+            // Unreadable or invalid input files and the width condition are the client's to fix
+            sendText(exchange, 422, e instanceof NoSuchFileException ? "No such file: " + e.getMessage() : e.getMessage());
+        } finally {
+            if (inputs != null && inputs.bodyUploaded()) {
+                delete(inputs.body().toPath());
+            }
+        }
+    }
+
+    /**
+     * Collects the body, border and format from the query string and the multipart fields;
+     * uploads are copied to the upload directory. If the request is rejected, the uploads it
+     * made are cleaned up.
+     */
+    private Inputs readInputs(HttpExchange exchange) throws IOException, BadRequestException {
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        File body = query.containsKey("body") ? new File(query.get("body")) : null;
+        File border = query.containsKey("border") ? new File(query.get("border")) : null;
+        String formatName = query.getOrDefault("format", "bmp");
+        boolean bodyUploaded = false;
+        boolean borderUploaded = false;
+
+        try {
+            String boundary = MultipartReader.boundary(exchange.getRequestHeaders().getFirst("Content-Type"));
+            if (boundary != null) {
+                try {
+                    MultipartReader reader = new MultipartReader(exchange.getRequestBody(), boundary);
+                    for (MultipartReader.Part part = reader.next(); part != null; part = reader.next()) {
+                        if (part.name().equals("format")) {
+                            formatName = reader.readText(MAX_PATH_BYTES).strip();
+                            continue;
+                        }
+                        boolean isBody = part.name().equals("body");
+                        if (!isBody && !part.name().equals("border")) {
+                            continue; // Skipped by next()
+                        }
+                        File file;
+                        if (part.fileName() == null) {
+                            file = new File(reader.readText(MAX_PATH_BYTES).strip());
+                        } else if (isBody) {
+                            file = uploadBody(reader);
+                        } else {
+                            file = uploadBorder(reader);
+                        }
+                        if (isBody) {
+                            if (bodyUploaded) {
+                                delete(body.toPath());
+                            }
+                            body = file;
+                            bodyUploaded = part.fileName() != null;
+                        } else {
+                            if (borderUploaded) {
+                                releaseBorder(border.toPath());
+                            }
+                            border = file;
+                            borderUploaded = part.fileName() != null;
+                        }
+                    }
+                } catch (MultipartReader.PartTooLargeException e) {
+                    throw new BadRequestException(413, "Upload too large: " + e.getMessage());
+                } catch (IOException e) {
+                    throw new BadRequestException(400, "Could not read the upload: " + e.getMessage());
+                }
+            }
+
+            if (body == null || border == null) {
+                throw new BadRequestException(400, "A body and a border are required, as paths (?body=...&border=...) "
+                        + "or as multipart/form-data fields named body and border.");
+            }
+            OutputFormat format;
+            try {
+                format = OutputFormat.of(formatName);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(400, e.getMessage());
+            }
+            return new Inputs(body, border, bodyUploaded, borderUploaded, format);
+        } catch (BadRequestException e) {
+            if (bodyUploaded) {
+                delete(body.toPath());
+            }
+            if (borderUploaded) {
+                releaseBorder(border.toPath());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Copies an uploaded body to the upload directory.
+     * @throws MultipartReader.PartTooLargeException If the body is larger than the limit for bodies.
+     */
+    private File uploadBody(MultipartReader reader) throws IOException {
+        Path file = Files.createTempFile(uploadDir, "body-", ".bmp");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            reader.copyPart(out, maxBodyBytes);
+        } catch (IOException e) {
+            delete(file);
+            throw e;
+        }
+        return file.toFile();
+    }
+
+    /**
+     * Stores an uploaded border under the SHA-256 of its content and marks it as in use until
+     * {@link #releaseBorder}. A border that is already stored is left untouched, so its cache
+     * entry stays valid.
+     * @throws MultipartReader.PartTooLargeException If the border is larger than all the space for borders.
+     * @throws BadRequestException With status 503 if the border does not fit next to the borders in use.
+     */
+    private File uploadBorder(MultipartReader reader) throws IOException, BadRequestException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required of every JDK", e);
+        }
+
+        Path temporary = Files.createTempFile(uploadDir, ".border-", ".part");
+        try {
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(temporary), digest)) {
+                reader.copyPart(out, maxBorderBytes);
+            }
+            Path border = uploadDir.resolve("border-" + HexFormat.of().formatHex(digest.digest()) + ".bmp");
+            long size = Files.size(temporary);
+            synchronized (storedBorders) {
+                if (storedBorders.get(border) == null) { // get, not containsKey: a stored border becomes the most recently used
+                    makeRoom(size);
+                    Files.move(temporary, border, StandardCopyOption.ATOMIC_MOVE);
+                    storedBorders.put(border, size);
+                    storedBorderBytes += size;
+                }
+                bordersInUse.merge(border, 1, Integer::sum);
+            }
+            return border.toFile();
+        } finally {
+            delete(temporary);
+        }
+    }
+
+    /**
+     * Deletes the least recently used borders that no request needs until there is room for
+     * another one, dropping their cache entries too. Must hold the storedBorders lock.
+     * @throws BadRequestException With status 503 if the borders in use leave too little room.
+     */
+    private void makeRoom(long size) throws IOException, BadRequestException {
+        Iterator<Map.Entry<Path, Long>> leastRecentlyUsed = storedBorders.entrySet().iterator();
+        while (storedBorderBytes + size > maxBorderBytes && leastRecentlyUsed.hasNext()) {
+            Map.Entry<Path, Long> stored = leastRecentlyUsed.next();
+            if (!bordersInUse.containsKey(stored.getKey())) {
+                storedBorderBytes -= stored.getValue();
+                leastRecentlyUsed.remove();
+                borderCache.invalidate(stored.getKey().toFile());
+                delete(stored.getKey());
+            }
+        }
+        if (storedBorderBytes + size > maxBorderBytes) {
+            throw new BadRequestException(503, "No room for another uploaded border while the stored ones are in use, "
+                    + "try again later.");
+        }
+    }
+
+    /**
+     * Ends the use of a stored border by one request.
+     */
+    private void releaseBorder(Path border) {
+        synchronized (storedBorders) {
+            bordersInUse.computeIfPresent(border, (path, requests) -> requests == 1 ? null : requests - 1);
+        }
+    }
+
+    /**
+     * Deletes a stored border whose cache entry was evicted, unless a request still needs it.
+     */
+    private void discardBorder(Path border) {
+        synchronized (storedBorders) {
+            if (bordersInUse.containsKey(border)) {
+                return;
+            }
+            Long size = storedBorders.remove(border);
+            if (size != null) {
+                storedBorderBytes -= size;
+                delete(border);
+            }
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                sendText(exchange, 405, "Use GET.");
+                return;
+            }
+            sendText(exchange, 200, metrics.summary() + "border cache: " + borderCache.stats() + "\n" + requestStats());
+        }
+    }
+
+    /**
+     * @return Request counts, slot usage and the latency of whole requests, including the wait for a slot.
+     */
+    private String requestStats() {
+        return String.format(Locale.ROOT,
+                "requests: %d, rejected: %d, waiting: %d, in flight: %d%n"
+                        + "slot wait ms: p50 %.2f, p99 %.2f, max %.2f%n"
+                        + "request ms:   p50 %.2f, p90 %.2f, p99 %.2f, max %.2f%n",
+                requestNanos.count(), rejected.get(), waiting.get(), maxInFlight - slots.availablePermits(),
+                waitNanos.percentile(50) / 1e6, waitNanos.percentile(99) / 1e6, waitNanos.max() / 1e6,
+                requestNanos.percentile(50) / 1e6, requestNanos.percentile(90) / 1e6,
+                requestNanos.percentile(99) / 1e6, requestNanos.max() / 1e6);
+    }
+
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Parses an {@code application/x-www-form-urlencoded} query string.
+     * @throws BadRequestException If a {@code %} escape is malformed.
+     */
+    static Map<String, String> parseQuery(String rawQuery) throws BadRequestException {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        try {
+            for (String pair : rawQuery.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(400, "Malformed query");
+        }
+        return parameters;
+    }
+
+    private void deleteUploads() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(uploadDir)) {
+            for (Path file : files) {
+                delete(file);
+            }
+        } catch (IOException e) {
+            log.println("Could not clean up " + uploadDir + ": " + e.getMessage());
+        }
+        delete(uploadDir);
+    }
+
+    /**
+     * Deletes a file, or leaves it for the JVM to delete on exit if it is still mapped (Windows).
+     */
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            file.toFile().deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.example.bmpfile_merger.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads a {@code multipart/form-data} request body one part at a time, straight from the
+ * stream. Part contents are copied out in buffer-sized chunks, so uploads of any size can go
+ * to disk without being held in memory.
+ */
+final class MultipartReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_LINE = 8 * 1024;
+    private static final Pattern BOUNDARY = Pattern.compile("(?i)^multipart/form-data\\s*;.*?boundary=(?:\"([^\"]+)\"|([^;\\s]+))");
+
+    /**
+     * The form field of one part.
+     * @param name The field name.
+     * @param fileName The name of the uploaded file, or null for a plain text field.
+     */
+    record Part(String name, String fileName) {
+    }
+
+    /**
+     * The content of a part is longer than the caller accepts.
+     */
+    static final class PartTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        PartTooLargeException(long maxBytes) {
+            super("Multipart field longer than " + maxBytes + " bytes.");
+        }
+    }
+
+    private final InputStream in;
+    private final byte[] delimiter; // CRLF, "--" and the boundary; ends the content of every part
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean inPart; // Positioned inside the content of a part
+    private boolean done;
+
+    /**
+     * @param in The request body.
+     * @param boundary The boundary from the content type, see {@link #boundary}.
+     * @throws IOException If the body does not contain a first boundary.
+     */
+    MultipartReader(InputStream in, String boundary) throws IOException {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.buffer = new byte[BUFFER_SIZE + delimiter.length];
+
+        // The first boundary has no line break in front of it; anything before it is ignored
+        byte[] first = new byte[delimiter.length - 2];
+        System.arraycopy(delimiter, 2, first, 0, first.length);
+        copyUntil(first, OutputStream.nullOutputStream(), Long.MAX_VALUE);
+    }
+
+    /**
+     * @param contentType The Content-Type header of the request, may be null.
+     * @return The multipart boundary, or null if the request is not {@code multipart/form-data}.
+     */
+    static String boundary(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        Matcher matcher = BOUNDARY.matcher(contentType);
+        if (!matcher.find()) {
+            return null;
+        }
+        return matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+    }
+
+    /**
+     * Moves to the next part, skipping what is left of the current one.
+     * @return The next part, positioned at its content, or null after the last part.
+     * @throws IOException If the body is truncated or malformed.
+     */
+    Part next() throws IOException {
+        if (inPart) {
+            copyPart(OutputStream.nullOutputStream());
+        }
+        if (done) {
+            return null;
+        }
+        // After a boundary, "--" ends the body and a line break starts the headers of a part
+        if (!fill(2)) {
+            throw new EOFException("Truncated multipart body.");
+        }
+        if (buffer[position] == '-' && buffer[position + 1] == '-') {
+            done = true;
+            return null;
+        }
+        readLine(); // Rest of the boundary line, normally empty
+
+        String name = null;
+        String fileName = null;
+        for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+            if (line.regionMatches(true, 0, "Content-Disposition:", 0, 20)) {
+                name = parameter(line, "name");
+                fileName = parameter(line, "filename");
+            }
+        }
+        if (name == null) {
+            throw new IOException("Multipart part without a form field name.");
+        }
+        inPart = true;
+        return new Part(name, fileName);
+    }
+
+    /**
+     * Copies the content of the current part.
+     * @param out Receives the content.
+     * @throws IOException If reading or writing fails.
+     */
+    void copyPart(OutputStream out) throws IOException {
+        copyPart(out, Long.MAX_VALUE);
+    }
+
+    /**
+     * Copies the content of the current part, up to a size limit.
+     * @param out Receives the content.
+     * @param maxBytes The longest content accepted.
+     * @throws PartTooLargeException If the content is longer than {@code maxBytes}.
+     * @throws IOException If reading or writing fails.
+     */
+    void copyPart(OutputStream out, long maxBytes) throws IOException {
+        copyUntil(delimiter, out, maxBytes);
+        inPart = false;
+    }
+
+    /**
+     * Reads the content of the current part as text.
+     * @param maxBytes The longest value accepted.
+     * @return The content, decoded as UTF-8.
+     * @throws PartTooLargeException If the content is longer than {@code maxBytes}.
+     * @throws IOException If reading fails.
+     */
+    String readText(int maxBytes) throws IOException {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        copyUntil(delimiter, text, maxBytes);
+        inPart = false;
+        return text.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies bytes up to the next occurrence of the pattern and skips the pattern.
+     * Only the last {@code pattern.length - 1} bytes are held back between reads, since they
+     * may be the start of the pattern.
+     */
+    private void copyUntil(byte[] pattern, OutputStream out, long maxBytes) throws IOException {
+        long copied = 0;
+        while (true) {
+            int found = indexOf(pattern);
+            int end = found >= 0 ? found : Math.max(position, limit - (pattern.length - 1));
+            copied += end - position;
+            if (copied > maxBytes) {
+                throw new PartTooLargeException(maxBytes);
+            }
+            out.write(buffer, position, end - position);
+            position = end;
+            if (found >= 0) {
+                position += pattern.length;
+                return;
+            }
+            if (!readMore()) {
+                throw new EOFException("Truncated multipart body.");
+            }
+        }
+    }
+
+    private int indexOf(byte[] pattern) {
+        byte first = pattern[0];
+        for (int i = position, last = limit - pattern.length; i <= last; i++) {
+            if (buffer[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < pattern.length && buffer[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a header line, without its line break.
+     */
+    private String readLine() throws IOException {
+        int scanned = 0; // Relative to position, which moves when the buffer is compacted
+        while (true) {
+            for (int i = position + scanned; i + 1 < limit; i++) {
+                if (buffer[i] == '\r' && buffer[i + 1] == '\n') {
+                    String line = new String(buffer, position, i - position, StandardCharsets.UTF_8);
+                    position = i + 2;
+                    return line;
+                }
+            }
+            scanned = Math.max(0, limit - position - 1);
+            if (scanned > MAX_HEADER_LINE) {
+                throw new IOException("Multipart header line too long.");
+            }
+            if (!readMore()) {
+                throw new EOFException("Truncated multipart body.");
+            }
+        }
+    }
+
+    /**
+     * Makes sure at least {@code count} unread bytes are buffered.
+     * @return False if the stream ends first.
+     */
+    private boolean fill(int count) throws IOException {
+        while (limit - position < count) {
+            if (!readMore()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves the unread bytes to the front of the buffer and reads more after them.
+     * @return False at the end of the stream.
+     */
+    private boolean readMore() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    /**
+     * @return The value of a parameter of a Content-Disposition header, or null if it has none.
+     */
+    private static String parameter(String header, String name) {
+        Matcher matcher = Pattern.compile("(?i);\\s*" + name + "=(?:\"([^\"]*)\"|([^;\\s]*))").matcher(header);
+        if (!matcher.find()) {
+            return null;
+        }
+        return matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.bmpfile_merger.cli;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-running mode that merges body files as they are dropped into a spool directory.
+ * <p>
+ * New or renamed-in {@code .bmp} files are picked up through a {@link WatchService} and
+ * handed to the workers once their size and modification time have not changed for a quiet
+ * period, i.e. once the writer is done. The hand-off queue is bounded: during a burst the
+ * watcher blocks on it instead of buffering without limit, and catches up by rescanning the
+ * directory if the watch service overflows in the meantime. Merged bodies are moved to
+ * {@code processed/} and failed ones to {@code failed/} inside the spool directory.
+ * Files whose name starts with a dot are ignored, so writers can upload under a hidden
+ * name and rename when done.
+ * <p>
+ * At most one merge per output file runs at a time: a body whose output is still being
+ * written, e.g. one dropped again under the same name, waits until that merge is done.
+ * A body that is replaced while it is merged stays in the spool and is merged again.
+ */
+public class WatchFolderDaemon implements Closeable {
+
+    private static final Path STOP = Path.of(""); // Tells a worker to exit
+
+    private final Path spoolDir;
+    private final File border;
+    private final Path outDir;
+    private final BatchMerger merger;
+    private final int workers;
+    private final long quietMillis;
+    private final PrintStream log;
+
+    private final BlockingQueue<Path> queue;
+    private final Map<Path, Pending> queued = new ConcurrentHashMap<>(); // Waiting in the queue or being merged, as queued
+    private final Set<Path> outputs = ConcurrentHashMap.newKeySet(); // Outputs of the queued files
+    private final Map<Path, Pending> pending = new HashMap<>(); // Seen, but maybe still being written
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean running = true;
+
+    /**
+     * A file that is not known to be complete yet.
+     */
+    private record Pending(long size, long lastModified, long unchangedSince) {
+    }
+
+    /**
+     * @param spoolDir The directory to watch for body files.
+     * @param border The border image merged into every body.
+     * @param outDir Where merged images are written, under the body's file name.
+     * @param merger Performs the merges.
+     * @param workers The number of parallel merges.
+     * @param queueCapacity The number of complete files that may wait for a worker.
+     * @param quietMillis How long a file must stay unchanged before it is merged.
+     * @param log Receives one line per merged or failed file.
+     */
+    public WatchFolderDaemon(Path spoolDir, File border, Path outDir, BatchMerger merger,
+                             int workers, int queueCapacity, long quietMillis, PrintStream log) {
+        if (workers < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("workers and queueCapacity must be at least 1.");
+        }
+        this.spoolDir = spoolDir.toAbsolutePath().normalize();
+        this.border = border;
+        this.outDir = outDir.toAbsolutePath().normalize();
+        if (this.outDir.equals(this.spoolDir)) {
+            throw new IllegalArgumentException("The output directory must not be the spool directory.");
+        }
+        this.merger = merger;
+        this.workers = workers;
+        this.quietMillis = quietMillis;
+        this.log = log;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * Watches the spool directory until {@link #close} is called or the directory disappears.
+     * Files already in the directory are merged first.
+     * @throws IOException If the directory cannot be watched.
+     * @throws InterruptedException If the calling thread is interrupted.
+     */
+    public void run() throws IOException, InterruptedException {
+        Files.createDirectories(outDir);
+        Files.createDirectories(spoolDir.resolve("processed"));
+        Files.createDirectories(spoolDir.resolve("failed"));
+
+        List<Thread> workerThreads = new ArrayList<>();
+        try (WatchService watcher = spoolDir.getFileSystem().newWatchService()) {
+            spoolDir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            for (int i = 0; i < workers; i++) {
+                Thread thread = new Thread(this::work, "spool-worker-" + i);
+                thread.start();
+                workerThreads.add(thread);
+            }
+
+            scanSpoolDir();
+            while (running) {
+                WatchKey key = watcher.poll(Math.max(10, quietMillis / 2), TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            scanSpoolDir(); // Events were lost
+                        } else {
+                            notice(spoolDir.resolve((Path) event.context()));
+                        }
+                    }
+                    if (!key.reset()) {
+                        log.println("Spool directory " + spoolDir + " is no longer accessible, stopping.");
+                        break;
+                    }
+                }
+                enqueueCompleteFiles();
+            }
+        } finally {
+            for (int i = 0; i < workerThreads.size(); i++) {
+                queue.put(STOP); // Queued files are still merged first
+            }
+            for (Thread thread : workerThreads) {
+                thread.join();
+            }
+            stopped.countDown();
+        }
+    }
+
+    /**
+     * Stops watching, lets the workers finish the files already queued and waits for them.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void scanSpoolDir() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolDir)) {
+            for (Path file : files) {
+                notice(file);
+            }
+        }
+    }
+
+    /**
+     * Starts tracking a file, or restarts its quiet period if it changed.
+     */
+    private void notice(Path file) {
+        String name = file.getFileName().toString();
+        if (name.startsWith(".") || !name.toLowerCase(Locale.ROOT).endsWith(".bmp")) {
+            return;
+        }
+        pending.putIfAbsent(file, new Pending(-1, -1, System.currentTimeMillis()));
+    }
+
+    /**
+     * Queues every tracked file that has stayed unchanged for the quiet period, unless it or its
+     * output is still being merged. Blocks while the queue is full, which throttles the watcher
+     * to the speed of the workers.
+     */
+    private void enqueueCompleteFiles() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Pending>> entries = pending.entrySet().iterator();
+        while (entries.hasNext() && running) {
+            Map.Entry<Path, Pending> entry = entries.next();
+            Path file = entry.getKey();
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                entries.remove(); // Deleted or renamed away before it was complete
+                continue;
+            }
+            if (!attributes.isRegularFile()) {
+                entries.remove();
+                continue;
+            }
+
+            Pending seen = entry.getValue();
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            if (attributes.size() != seen.size() || lastModified != seen.lastModified()) {
+                entry.setValue(new Pending(attributes.size(), lastModified, now)); // Still being written
+            } else if (now - seen.unchangedSince() >= quietMillis && !queued.containsKey(file)
+                    && outputs.add(output(file))) {
+                entries.remove();
+                queued.put(file, seen);
+                queue.put(file);
+            }
+        }
+    }
+
+    private void work() {
+        try {
+            for (Path body = queue.take(); body != STOP; body = queue.take()) {
+                try {
+                    merge(body, queued.get(body));
+                } finally {
+                    outputs.remove(output(body));
+                    queued.remove(body);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Path output(Path body) {
+        return outDir.resolve(merger.format().fileName(body.getFileName().toString()));
+    }
+
+    private void merge(Path body, Pending queuedAs) {
+        long start = System.nanoTime();
+        Path output = output(body);
+        try {
+            merger.mergeFile(new MergeJob(body.toFile(), border, output.toFile()));
+            if (replaced(body, queuedAs)) {
+                log.println("CHANGED " + body.getFileName() + ": replaced while merging, merging it again");
+                return;
+            }
+            BatchMerger.moveAtomically(body, spoolDir.resolve("processed").resolve(body.getFileName()));
+            log.printf(Locale.ROOT, "OK     %s -> %s (%.0f ms)%n", body.getFileName(), output, (System.nanoTime() - start) / 1e6);
+        } catch (NoSuchFileException e) {
+            log.println("SKIPPED " + body.getFileName() + ": file disappeared");
+        } catch (IOException | RuntimeException e) {
+            log.println("FAILED " + body.getFileName() + ": " + e.getMessage());
+            if (replaced(body, queuedAs)) {
+                return; // The new file gets its own try
+            }
+            try {
+                BatchMerger.moveAtomically(body, spoolDir.resolve("failed").resolve(body.getFileName()));
+            } catch (IOException moveError) {
+                log.println("FAILED to move " + body.getFileName() + " to failed/: " + moveError.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return True if the file is not the one that was queued any more: it was rewritten or
+     *         replaced while it was merged. Its new version is tracked like any new file.
+     */
+    private static boolean replaced(Path file, Pending queuedAs) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.size() != queuedAs.size() || attributes.lastModifiedTime().toMillis() != queuedAs.lastModified();
+        } catch (IOException e) {
+            return false; // Gone; moving it reports that
+        }
+    }
+}
@@ -0,0 +1,6 @@
+module com.example.bmpfile_merger.cli {
+    requires transitive com.example.bmpfile_merger.core; // BorderCache, MergeMetrics and OutputFormat are part of this API
+    requires jdk.httpserver; // MergeServer
+
+    exports com.example.bmpfile_merger.cli;
+}
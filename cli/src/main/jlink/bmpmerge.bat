@@ -0,0 +1,4 @@
+@echo off
+rem Starts the merger from the linked runtime, mapping the class-data archive recorded at
+rem build time. The JVM ignores an archive that is missing or does not match the runtime.
+"%~dp0java" -XX:SharedArchiveFile="%~dp0..\lib\bmpmerge.jsa" --add-modules jdk.incubator.vector,jdk.jfr,jdk.management -m com.example.bmpfile_merger.cli/com.example.bmpfile_merger.cli.MergeCli %*
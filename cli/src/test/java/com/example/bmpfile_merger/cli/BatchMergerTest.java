@@ -0,0 +1,126 @@
+package com.example.bmpfile_merger.cli;
+
+import com.example.bmpfile_merger.BmpImage;
+import com.example.bmpfile_merger.BmpMerger;
+import com.example.bmpfile_merger.BorderCache;
+import com.example.bmpfile_merger.MergeMetrics;
+import com.example.bmpfile_merger.MergeSchedule;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Batch runs must give the same files as merging each pair on its own, and leave nothing
+ * half-written behind.
+ */
+class BatchMergerTest {
+
+    private static final int WIDTH = 333;
+    private static final int HEIGHT = MergeSchedule.STRIPE_ROWS + 500;
+
+    @TempDir
+    File directory;
+
+    @Test
+    void sharedBodyIsScannedOnceForAllBorders() throws IOException, InterruptedException {
+        File body = TestImages.write(new File(directory, "body.bmp"), WIDTH + 1, HEIGHT, 3, 1);
+        File batchDir = mkdir("batch");
+        File singleDir = mkdir("single");
+        List<MergeJob> jobs = new ArrayList<>();
+        List<MergeJob> singleJobs = new ArrayList<>();
+        int[] borderHeights = {1, 7, 50, 4096, 5000};
+        for (int i = 0; i < borderHeights.length; i++) {
+            File border = TestImages.write(new File(directory, "border" + i + ".bmp"), WIDTH, borderHeights[i], 3, 10 + i);
+            jobs.add(new MergeJob(body, border, new File(batchDir, "out" + i + ".bmp")));
+            singleJobs.add(new MergeJob(body, border, new File(singleDir, "out" + i + ".bmp")));
+        }
+        MergeMetrics metrics = new MergeMetrics();
+
+        List<BatchMerger.Result> results = new BatchMerger(3, false, new BorderCache(), metrics).run(jobs, result -> { });
+
+        assertEquals(jobs.size(), results.size());
+        for (BatchMerger.Result result : results) {
+            assertTrue(result.succeeded(), () -> String.valueOf(result.error()));
+        }
+        assertEquals(1, metrics.stage(MergeMetrics.Stage.READ).nanos().count(), "body reads");
+        assertEquals(1, metrics.stage(MergeMetrics.Stage.SCAN).nanos().count(), "body scans");
+        assertEquals(jobs.size(), metrics.stage(MergeMetrics.Stage.MERGE_WRITE).nanos().count(), "merges");
+
+        BatchMerger single = new BatchMerger(1, false, new BorderCache(), new MergeMetrics());
+        BmpImage file1Bmp = BmpImage.read(body);
+        for (int i = 0; i < jobs.size(); i++) {
+            single.mergeFile(singleJobs.get(i));
+            byte[] expected = Files.readAllBytes(singleJobs.get(i).output().toPath());
+            assertArrayEquals(expected, Files.readAllBytes(jobs.get(i).output().toPath()), "output " + i);
+
+            File reference = new File(directory, "reference" + i + ".bmp");
+            BmpMerger.merge(file1Bmp, BmpImage.read(jobs.get(i).border())).write(reference);
+            assertArrayEquals(Files.readAllBytes(reference.toPath()), expected, "reference " + i);
+        }
+    }
+
+    @Test
+    void streamingMatchesInMemory() throws IOException, InterruptedException {
+        File body = TestImages.write(new File(directory, "body.bmp"), WIDTH + 1, HEIGHT, 3, 2);
+        File border = TestImages.write(new File(directory, "border.bmp"), WIDTH, 77, 3, 3);
+        File inMemory = new File(mkdir("memory"), "out.bmp");
+        File streamed = new File(mkdir("streamed"), "out.bmp");
+
+        new BatchMerger(1, false, new BorderCache(), new MergeMetrics()).mergeFile(new MergeJob(body, border, inMemory));
+        new BatchMerger(1, true, new BorderCache(), new MergeMetrics()).mergeFile(new MergeJob(body, border, streamed));
+
+        assertArrayEquals(Files.readAllBytes(inMemory.toPath()), Files.readAllBytes(streamed.toPath()));
+    }
+
+    @Test
+    void rejectsJobsWritingTheSameOutput() throws IOException {
+        File body1 = TestImages.write(new File(directory, "body1.bmp"), WIDTH + 1, 10, 3, 4);
+        File body2 = TestImages.write(new File(directory, "body2.bmp"), WIDTH + 1, 10, 3, 5);
+        File border = TestImages.write(new File(directory, "border.bmp"), WIDTH, 10, 3, 6);
+        File outDir = mkdir("out");
+        List<MergeJob> jobs = List.of(
+                new MergeJob(body1, border, new File(outDir, "merged.bmp")),
+                new MergeJob(body2, border, new File(new File(outDir, "sub/.."), "merged.bmp")));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new BatchMerger(2, false, new BorderCache(), new MergeMetrics()).run(jobs, result -> { }));
+        assertArrayEquals(new String[0], outDir.list(), "nothing merged");
+    }
+
+    @Test
+    void failedMergeLeavesNoFiles() throws IOException, InterruptedException {
+        File body = TestImages.write(new File(directory, "body.bmp"), WIDTH + 1, 100, 3, 7);
+        File narrow = TestImages.write(new File(directory, "narrow.bmp"), WIDTH - 1, 10, 3, 8);
+        File outDir = mkdir("out");
+
+        for (boolean streaming : new boolean[] {false, true}) {
+            MergeMetrics metrics = new MergeMetrics();
+            MergeJob job = new MergeJob(body, narrow, new File(outDir, "merged.bmp"));
+
+            List<BatchMerger.Result> results = new BatchMerger(1, streaming, new BorderCache(), metrics).run(List.of(job), result -> { });
+
+            assertFalse(results.getFirst().succeeded());
+            assertInstanceOf(IllegalArgumentException.class, results.getFirst().error(), "width condition");
+            assertEquals(1, metrics.failures());
+            assertArrayEquals(new String[0], outDir.list(), "no output or .part file, streaming=" + streaming);
+        }
+    }
+
+    private File mkdir(String name) {
+        File dir = new File(directory, name);
+        assertTrue(dir.mkdir());
+        return dir;
+    }
+}
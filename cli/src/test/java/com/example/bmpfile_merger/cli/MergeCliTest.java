@@ -0,0 +1,151 @@
+package com.example.bmpfile_merger.cli;
+
+import com.example.bmpfile_merger.OutputFormat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MergeCliTest {
+
+    private static final int WIDTH = 100;
+
+    @TempDir
+    File directory;
+
+    private final ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+
+    @Test
+    void rejectsBadArguments() {
+        assertUsageError("Unknown option: --bogus", "--bogus");
+        assertUsageError("Missing value for --border", "--body", "a.bmp", "--border");
+        assertUsageError("--threads must be at least 1", "--threads", "0", "--body", "a.bmp");
+        assertUsageError("--streaming only writes BMP", "--streaming", "--format", "tiff");
+        assertUsageError("Unknown output format", "--format", "png");
+        assertUsageError("--body requires --border and --out", "--body", "a.bmp");
+        assertUsageError("--watch requires one --border and --out", "--watch", "spool", "--out", "out");
+        assertUsageError("--serve takes its pairs from the requests", "--serve", "0", "--body", "a.bmp");
+        assertUsageError("Nothing to merge", "--out", "out");
+        assertUsageError("For input string", "--threads", "many");
+    }
+
+    @Test
+    void rejectsMissingManifest() {
+        File missing = new File(directory, "missing.csv");
+
+        assertUsageError(missing.getPath(), "--manifest", missing.getPath(), "--out", directory.getPath());
+    }
+
+    @Test
+    void printsUsageOnHelp() {
+        assertEquals(0, run("--help"));
+        assertTrue(out().contains(MergeCli.USAGE));
+    }
+
+    @Test
+    void expandsBodyDirectoriesInNameOrder() throws IOException {
+        File bodyDir = new File(directory, "bodies");
+        assertTrue(bodyDir.mkdir());
+        for (String name : List.of("b.bmp", "a.BMP", "c.bmp", "notes.txt")) {
+            Files.createFile(new File(bodyDir, name).toPath());
+        }
+        File single = new File(directory, "single.bmp");
+
+        List<File> bodies = MergeCli.expandBodies(List.of(single, bodyDir));
+
+        assertEquals(List.of(single, new File(bodyDir, "a.BMP"), new File(bodyDir, "b.bmp"), new File(bodyDir, "c.bmp")), bodies);
+    }
+
+    @Test
+    void namesFanOutOutputsAfterBodyAndBorder() {
+        File body = new File("scans/page 1.bmp");
+
+        assertEquals("page 1_border A.bmp", MergeCli.fanOutName(body, new File("borders/border A.BMP"), OutputFormat.BMP));
+        assertEquals("page 1_thin.tif", MergeCli.fanOutName(body, new File("thin.bmp"), OutputFormat.TIFF_G4));
+        assertEquals("page_thin.dib.pbm", MergeCli.fanOutName(new File("page"), new File("thin.dib"), OutputFormat.PBM));
+    }
+
+    @Test
+    void readsManifestRelativeToItsDirectory() throws IOException {
+        File manifest = new File(directory, "pairs.csv");
+        Files.writeString(manifest.toPath(), String.join("\n",
+                "# body,border[,output]",
+                "",
+                "a.bmp, borders/x.bmp",
+                " /abs/b.bmp,y.bmp,merged/b-out.tif "));
+        File outDir = new File(directory, "out");
+
+        List<MergeJob> jobs = MergeCli.readManifest(manifest, outDir, OutputFormat.TIFF_G4);
+
+        assertEquals(List.of(
+                new MergeJob(new File(directory, "a.bmp"), new File(directory, "borders/x.bmp"), new File(outDir, "a.tif")),
+                new MergeJob(new File("/abs/b.bmp"), new File(directory, "y.bmp"), new File(directory, "merged/b-out.tif"))),
+                jobs);
+
+        Files.writeString(manifest.toPath(), "a.bmp,x.bmp\n");
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> MergeCli.readManifest(manifest, null, OutputFormat.BMP));
+        assertTrue(e.getMessage().contains(":1: no output given"), e.getMessage());
+        Files.writeString(manifest.toPath(), "\na.bmp\n");
+        e = assertThrows(IllegalArgumentException.class, () -> MergeCli.readManifest(manifest, outDir, OutputFormat.BMP));
+        assertTrue(e.getMessage().contains(":2: expected body,border[,output]"), e.getMessage());
+    }
+
+    @Test
+    void mergesEveryBodyWithEveryBorder() throws IOException {
+        File bodyDir = new File(directory, "bodies");
+        assertTrue(bodyDir.mkdir());
+        File body1 = TestImages.write(new File(bodyDir, "one.bmp"), WIDTH + 1, 40, 3, 1);
+        File body2 = TestImages.write(new File(bodyDir, "two.bmp"), WIDTH + 1, 40, 3, 2);
+        File border1 = TestImages.write(new File(directory, "x.bmp"), WIDTH, 5, 3, 3);
+        File border2 = TestImages.write(new File(directory, "y.bmp"), WIDTH, 7, 3, 4);
+        File outDir = new File(directory, "out");
+
+        assertEquals(0, run("--body", bodyDir.getPath(), "--border", border1.getPath(), "--border", border2.getPath(),
+                "--out", outDir.getPath(), "--threads", "2"), err());
+
+        String[] outputs = outDir.list();
+        Arrays.sort(outputs);
+        assertArrayEquals(new String[] {"one_x.bmp", "one_y.bmp", "two_x.bmp", "two_y.bmp"}, outputs);
+        assertTrue(out().contains("Merged 4 of 4 pairs (0 failed)"), out());
+
+        // Failed pairs are reported and make the exit code 1
+        File wide = TestImages.write(new File(directory, "wide.bmp"), WIDTH + 1, 5, 3, 5); // Fails the width condition
+        assertEquals(1, run("--body", body1.getPath(), "--body", body2.getPath(), "--border", wide.getPath(),
+                "--out", new File(directory, "out2").getPath()));
+        assertTrue(out().contains("Merged 0 of 2 pairs (2 failed)"), out());
+    }
+
+    private void assertUsageError(String message, String... args) {
+        errBytes.reset();
+        assertEquals(2, run(args), String.join(" ", args));
+        assertTrue(err().startsWith("Error: ") && err().contains(message), err());
+        assertTrue(err().contains(MergeCli.USAGE), "usage printed");
+    }
+
+    private int run(String... args) {
+        return new MergeCli(new PrintStream(outBytes, true, StandardCharsets.UTF_8),
+                new PrintStream(errBytes, true, StandardCharsets.UTF_8)).run(args);
+    }
+
+    private String out() {
+        return outBytes.toString(StandardCharsets.UTF_8);
+    }
+
+    private String err() {
+        return errBytes.toString(StandardCharsets.UTF_8);
+    }
+}
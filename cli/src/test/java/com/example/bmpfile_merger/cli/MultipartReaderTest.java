@@ -0,0 +1,144 @@
+package com.example.bmpfile_merger.cli;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MultipartReaderTest {
+
+    private static final String BOUNDARY = "----form-boundary-7MA4YWxkTrZu0gW";
+
+    @Test
+    void readsPartsWhateverTheReadSizes() throws IOException {
+        byte[] upload = new byte[200_000];
+        new SplittableRandom(1).nextBytes(upload);
+        // Content that starts like the delimiter without being one
+        byte[] tricky = ("a\r\n--" + BOUNDARY.substring(0, 10) + "\r\n-" + "\r\n--").getBytes(StandardCharsets.ISO_8859_1);
+        byte[] body = body(part("format", null, "tiff".getBytes(StandardCharsets.UTF_8)),
+                part("border", "border.bmp", tricky),
+                part("ignored", null, "x".getBytes(StandardCharsets.UTF_8)),
+                part("body", "body.bmp", upload));
+
+        for (int readSize : new int[] {1, 2, 3, 7, BOUNDARY.length() + 3, 4096, 65_537, Integer.MAX_VALUE}) {
+            MultipartReader reader = new MultipartReader(new ChunkedInputStream(body, readSize), BOUNDARY);
+
+            assertEquals(new MultipartReader.Part("format", null), reader.next());
+            assertEquals("tiff", reader.readText(100));
+            assertEquals(new MultipartReader.Part("border", "border.bmp"), reader.next());
+            assertArrayEquals(tricky, copy(reader), "read size " + readSize);
+            assertEquals(new MultipartReader.Part("ignored", null), reader.next());
+            assertEquals(new MultipartReader.Part("body", "body.bmp"), reader.next()); // Skips the ignored part
+            assertArrayEquals(upload, copy(reader), "read size " + readSize);
+            assertNull(reader.next());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    void missingFinalBoundaryIsAnError() throws IOException {
+        byte[] complete = body(part("body", "body.bmp", new byte[1000]));
+        for (int cut : new int[] {complete.length - 4, complete.length - BOUNDARY.length() - 6, complete.length - 500}) {
+            byte[] truncated = Arrays.copyOf(complete, cut);
+            MultipartReader reader = new MultipartReader(new ChunkedInputStream(truncated, 100), BOUNDARY);
+
+            assertThrows(EOFException.class, () -> {
+                reader.next();
+                copy(reader);
+                reader.next();
+            }, "cut at " + cut);
+        }
+    }
+
+    @Test
+    void missingFirstBoundaryIsAnError() {
+        byte[] notMultipart = "just some text".getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(EOFException.class, () -> new MultipartReader(new ByteArrayInputStream(notMultipart), BOUNDARY));
+    }
+
+    @Test
+    void oversizedPartIsRejected() throws IOException {
+        byte[] body = body(part("border", "border.bmp", new byte[101]), part("body", null, "/data/a.bmp".getBytes(StandardCharsets.UTF_8)));
+
+        MultipartReader reader = new MultipartReader(new ChunkedInputStream(body, 7), BOUNDARY);
+        reader.next();
+        assertThrows(MultipartReader.PartTooLargeException.class, () -> reader.copyPart(OutputStream.nullOutputStream(), 100));
+
+        MultipartReader fits = new MultipartReader(new ChunkedInputStream(body, 7), BOUNDARY);
+        fits.next();
+        fits.copyPart(OutputStream.nullOutputStream(), 101);
+        fits.next();
+        assertThrows(MultipartReader.PartTooLargeException.class, () -> fits.readText(10));
+    }
+
+    @Test
+    void findsTheBoundaryInTheContentType() {
+        assertEquals("abc", MultipartReader.boundary("multipart/form-data; boundary=abc"));
+        assertEquals("a b;c", MultipartReader.boundary("Multipart/Form-Data; charset=utf-8; boundary=\"a b;c\""));
+        assertNull(MultipartReader.boundary("application/x-www-form-urlencoded"));
+        assertNull(MultipartReader.boundary(null));
+    }
+
+    private static byte[] copy(MultipartReader reader) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        reader.copyPart(content);
+        return content.toByteArray();
+    }
+
+    private static byte[] part(String name, String fileName, byte[] content) {
+        ByteArrayOutputStream part = new ByteArrayOutputStream();
+        String headers = "Content-Disposition: form-data; name=\"" + name + "\""
+                + (fileName != null ? "; filename=\"" + fileName + "\"\r\nContent-Type: image/bmp" : "") + "\r\n\r\n";
+        part.writeBytes(headers.getBytes(StandardCharsets.UTF_8));
+        part.writeBytes(content);
+        return part.toByteArray();
+    }
+
+    private static byte[] body(byte[]... parts) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes("preamble\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        for (byte[] part : parts) {
+            body.writeBytes(("--" + BOUNDARY + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            body.writeBytes(part);
+            body.writeBytes("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        }
+        body.writeBytes(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        return body.toByteArray();
+    }
+
+    /**
+     * Returns at most a fixed number of bytes per read, like a socket delivering small packets.
+     */
+    private static final class ChunkedInputStream extends InputStream {
+        private final ByteArrayInputStream in;
+        private final int readSize;
+
+        ChunkedInputStream(byte[] bytes, int readSize) {
+            this.in = new ByteArrayInputStream(bytes);
+            this.readSize = readSize;
+        }
+
+        @Override
+        public int read() {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            return in.read(buffer, offset, Math.min(length, readSize));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.bmpfile_merger.cli;
+
+import com.example.bmpfile_merger.BmpImage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+
+/**
+ * Random test image files. The core module's test helpers are not visible to this module's
+ * tests, so this is the part of them the CLI tests need.
+ */
+final class TestImages {
+
+    private TestImages() {
+    }
+
+    /**
+     * Creates an image of random runs of black and white pixels. The padding bits are random too,
+     * as in files from writers that do not clear them.
+     * @param maxRun The longest run; 1 gives independent random pixels.
+     * @param inverted True for a white-first palette.
+     */
+    static BmpImage random(int width, int height, int maxRun, long seed, boolean inverted) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int paddedRowSize = BmpImage.paddedRowSize(width);
+        byte[] pixels = new byte[paddedRowSize * height];
+        random.nextBytes(pixels);
+        for (int row = 0; row < height; row++) {
+            int bit = random.nextInt(2);
+            for (int x = 0; x < width; ) {
+                int run = Math.min(width - x, 1 + random.nextInt(maxRun));
+                for (int end = x + run; x < end; x++) {
+                    int index = row * paddedRowSize + (x >> 3);
+                    int mask = 0x80 >>> (x & 7);
+                    pixels[index] = (byte) (bit != 0 ? pixels[index] | mask : pixels[index] & ~mask);
+                }
+                bit ^= 1;
+            }
+        }
+        return new BmpImage(width, height, ByteBuffer.wrap(pixels), inverted);
+    }
+
+    /**
+     * Writes a random image to a BMP file.
+     * @return The file.
+     */
+    static File write(File file, int width, int height, int maxRun, long seed) throws IOException {
+        random(width, height, maxRun, seed, false).write(file);
+        return file;
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.bmpfile_merger.cli;
+
+import com.example.bmpfile_merger.BorderCache;
+import com.example.bmpfile_merger.MergeMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Dropped bodies must be merged once they are complete, exactly once, and end up in
+ * {@code processed/} or {@code failed/}.
+ */
+class WatchFolderDaemonTest {
+
+    private static final int WIDTH = 333;
+    private static final long QUIET_MILLIS = 400;
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    @TempDir
+    Path directory;
+
+    private Path spoolDir;
+    private Path outDir;
+    private File border;
+    private MergeMetrics metrics;
+    private final ByteArrayOutputStream logBytes = new ByteArrayOutputStream();
+    private WatchFolderDaemon daemon;
+    private Thread daemonThread;
+    private final AtomicReference<Throwable> daemonError = new AtomicReference<>();
+
+    @BeforeEach
+    void start() throws IOException {
+        spoolDir = Files.createDirectory(directory.resolve("spool"));
+        outDir = directory.resolve("out");
+        border = TestImages.write(directory.resolve("border.bmp").toFile(), WIDTH, 50, 3, 1);
+        metrics = new MergeMetrics();
+        BatchMerger merger = new BatchMerger(1, false, new BorderCache(), metrics);
+        daemon = new WatchFolderDaemon(spoolDir, border, outDir, merger, 2, 4, QUIET_MILLIS,
+                new PrintStream(logBytes, true, StandardCharsets.UTF_8));
+        daemonThread = new Thread(() -> {
+            try {
+                daemon.run();
+            } catch (Throwable e) {
+                daemonError.set(e);
+            }
+        }, "watch-folder-test");
+        daemonThread.start();
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        daemon.close();
+        daemonThread.join(TIMEOUT_MILLIS);
+        assertNull(daemonError.get(), "daemon failed");
+    }
+
+    @Test
+    void mergesDroppedBodyAndMovesItToProcessed() throws IOException {
+        File source = TestImages.write(directory.resolve("body.bmp").toFile(), WIDTH + 1, 100, 3, 2);
+        File reference = directory.resolve("reference.bmp").toFile();
+        new BatchMerger(1, false, new BorderCache(), new MergeMetrics()).mergeFile(new MergeJob(source, border, reference));
+
+        File body = drop(source);
+
+        awaitFile(spoolDir.resolve("processed/body.bmp"));
+
+        assertFalse(body.exists());
+        assertArrayEquals(Files.readAllBytes(reference.toPath()), Files.readAllBytes(outDir.resolve("body.bmp")));
+        assertTrue(log().contains("OK     body.bmp"), log());
+    }
+
+    @Test
+    void movesBadBodyToFailed() throws IOException {
+        drop(TestImages.write(directory.resolve("narrow.bmp").toFile(), WIDTH - 1, 100, 3, 3)); // Fails the width condition
+        Files.writeString(spoolDir.resolve("garbage.bmp"), "not a bitmap");
+
+        awaitFile(spoolDir.resolve("failed/narrow.bmp"));
+        awaitFile(spoolDir.resolve("failed/garbage.bmp"));
+
+        assertFalse(Files.exists(outDir.resolve("narrow.bmp")));
+        assertFalse(Files.exists(outDir.resolve("garbage.bmp")));
+        assertEquals(2, metrics.failures());
+    }
+
+    @Test
+    void waitsWhileFileIsBeingWritten() throws IOException, InterruptedException {
+        Path source = TestImages.write(directory.resolve("slow.bmp").toFile(), WIDTH + 1, 100, 3, 4).toPath();
+        byte[] bytes = Files.readAllBytes(source);
+        Path body = spoolDir.resolve("slow.bmp");
+
+        // Chunks further apart than the watcher's polls, which come every half quiet period, so it
+        // sees the file unchanged in between, but closer than a whole quiet period
+        int chunks = 8;
+        try (OutputStream out = Files.newOutputStream(body)) {
+            for (int i = 0; i < chunks; i++) {
+                int from = bytes.length * i / chunks;
+                out.write(bytes, from, bytes.length * (i + 1) / chunks - from);
+                out.flush();
+                Thread.sleep(QUIET_MILLIS * 5 / 8);
+                assertTrue(Files.exists(body), "picked up after chunk " + i + ": " + log());
+                assertFalse(Files.exists(outDir.resolve("slow.bmp")), "merged after chunk " + i);
+            }
+        }
+
+        awaitFile(spoolDir.resolve("processed/slow.bmp"));
+        assertArrayEquals(bytes, Files.readAllBytes(spoolDir.resolve("processed/slow.bmp")));
+        assertEquals(0, metrics.failures(), log());
+    }
+
+    @Test
+    void mergesOnceForSeveralEvents() throws IOException, InterruptedException {
+        File body = drop(TestImages.write(directory.resolve("twice.bmp").toFile(), WIDTH + 1, 100, 3, 5));
+        Thread.sleep(QUIET_MILLIS / 4);
+        assertTrue(body.setLastModified(body.lastModified() + 1000)); // A second event for the same file
+
+        awaitFile(spoolDir.resolve("processed/twice.bmp"));
+        Thread.sleep(3 * QUIET_MILLIS); // Time for a second merge, if one were queued
+        daemon.close();
+
+        assertEquals(1, metrics.stage(MergeMetrics.Stage.MERGE_WRITE).nanos().count(), log());
+        assertEquals(1, log().lines().count(), log());
+    }
+
+    /**
+     * Copies a body into the spool directory under a hidden name and renames it there, as
+     * uploaders should.
+     */
+    private File drop(File source) throws IOException {
+        Path hidden = Files.copy(source.toPath(), spoolDir.resolve("." + source.getName()));
+        return Files.move(hidden, spoolDir.resolve(source.getName())).toFile();
+    }
+
+    private void awaitFile(Path file) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!Files.exists(file)) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for " + file + "; log:\n" + log());
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    private String log() {
+        return logBytes.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.bmpfile_merger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * The parsed and validated header of a 1bpp BMP file.
+ */
+public final class BmpHeader {
+    public final int width;
+    public final int height;
+    public final long dataOffset; // Offset to pixel data
+    public final int paddedRowSize; // Size of a row including padding bytes
+    public final long pixelDataSize; // paddedRowSize * height, may exceed 2 GB
+    public final boolean inverted; // True if the palette is white-first, i.e. bit 1 means black
+
+    private BmpHeader(int width, int height, long dataOffset, int paddedRowSize, boolean inverted) {
+        this.width = width;
+        this.height = height;
+        this.dataOffset = dataOffset;
+        this.inverted = inverted;
+        this.paddedRowSize = paddedRowSize;
+        this.pixelDataSize = (long) paddedRowSize * height;
+    }
+
+    /**
+     * Reads and validates the header and palette of a 1bpp BMP file.
+     * @param channel The channel to read from, using absolute positions.
+     * @return The parsed header.
+     * @throws IOException If there's an error reading the file or if it's not a valid 1bpp BMP.
+     */
+    public static BmpHeader read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(54).order(ByteOrder.LITTLE_ENDIAN); // Standard BMP header size
+        try {
+            readFully(channel, buffer, 0);
+        } catch (EOFException e) {
+            throw new IOException("Invalid BMP file: header too short (expected 54 bytes).");
+        }
+
+        // Verify BMP signature "BM" (0x4D42)
+        if (buffer.getShort(0) != 0x4D42) {
+            throw new IOException("Not a valid BMP file (signature 'BM' not found).");
+        }
+
+        long dataOffset = Integer.toUnsignedLong(buffer.getInt(10)); // Offset to pixel data
+        int infoHeaderSize = buffer.getInt(14); // Size of info header (40 for BITMAPINFOHEADER, more for V4/V5)
+        int width = buffer.getInt(18);
+        int height = buffer.getInt(22);
+        short bitsPerPixel = buffer.getShort(28);
+        int compression = buffer.getInt(30); // Compression method (0 for BI_RGB)
+
+        if (bitsPerPixel != 1) {
+            throw new IOException("Only 1-bit BMP files are supported. Found: " + bitsPerPixel + " bpp.");
+        }
+        if (compression != 0) {
+            throw new IOException("Compressed BMP files are not supported (only BI_RGB = 0).");
+        }
+        if (width <= 0 || height < 0) {
+            throw new IOException("Unsupported BMP dimensions: " + width + "x" + height + " (top-down BMP files are not supported).");
+        }
+        long paddedRowSize = (width + 31L) / 32 * 4; // In long: width + 31 overflows for the widest rows
+        if (paddedRowSize > Integer.MAX_VALUE) {
+            throw new IOException("Unsupported BMP width: " + width + " (rows of " + paddedRowSize + " bytes).");
+        }
+
+        // Color palette (2 entries for 1bpp), right after the info header. Usually 0x00000000 (black)
+        // then 0x00FFFFFF (white); a white-first palette means the bits have to be inverted.
+        ByteBuffer palette = ByteBuffer.allocate(BmpImage.PALETTE_SIZE);
+        try {
+            readFully(channel, palette, BmpImage.FILE_HEADER_SIZE + Integer.toUnsignedLong(infoHeaderSize));
+        } catch (EOFException e) {
+            throw new IOException("Invalid BMP file: palette too short (expected 8 bytes for 1bpp).");
+        }
+        boolean inverted = luminance(palette, 0) > luminance(palette, 4);
+
+        return new BmpHeader(width, height, dataOffset, (int) paddedRowSize, inverted);
+    }
+
+    /**
+     * @return The approximate luminance of a BGRA palette entry, 0 to 255 * 10.
+     */
+    private static int luminance(ByteBuffer palette, int offset) {
+        int blue = palette.get(offset) & 0xFF;
+        int green = palette.get(offset + 1) & 0xFF;
+        int red = palette.get(offset + 2) & 0xFF;
+        return 3 * red + 6 * green + blue;
+    }
+
+    /**
+     * Reads from the channel at the given position until the buffer is full.
+     * @throws EOFException If the end of the file is reached first.
+     */
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Writes the whole buffer to the channel at the given position.
+     */
+    static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.bmpfile_merger;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A 1bpp BMP image held in its packed on-disk layout: rows are stored bottom-up,
+ * 8 pixels per byte (MSB = leftmost pixel) and padded to a multiple of 4 bytes.
+ * <p>
+ * The pixel data is either a heap buffer ({@link #read}) or a read-only mapping of the
+ * file itself ({@link #map}). Either way it is accessed with absolute positions only,
+ * so rows can be viewed and copied without intermediate arrays.
+ */
+public class BmpImage {
+    public static final int FILE_HEADER_SIZE = 14;
+    public static final int INFO_HEADER_SIZE = 40;
+    public static final int PALETTE_SIZE = 8; // 2 entries for 1bpp: Black and White
+    public static final int PIXEL_DATA_OFFSET = FILE_HEADER_SIZE + INFO_HEADER_SIZE + PALETTE_SIZE;
+
+    public int width;
+    public int height;
+    public ByteBuffer pixelData; // Raw 1bpp pixel data (bottom-up, padded)
+    public int paddedRowSize; // Size of a row including padding bytes
+    public boolean inverted; // True if the palette is white-first, i.e. bit 1 means black
+
+    /**
+     * Constructor for creating a BmpImage object from raw data.
+     * Used internally when reading a file or preparing data for writing.
+     * @param width The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     * @param pixelData The raw 1bpp pixel data (bottom-up, padded).
+     */
+    public BmpImage(int width, int height, ByteBuffer pixelData) {
+        this(width, height, pixelData, false);
+    }
+
+    /**
+     * Constructor for creating a BmpImage object whose palette may be white-first.
+     * @param width The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     * @param pixelData The raw 1bpp pixel data (bottom-up, padded).
+     * @param inverted True if bit 1 means black rather than white.
+     */
+    public BmpImage(int width, int height, ByteBuffer pixelData, boolean inverted) {
+        this.width = width;
+        this.height = height;
+        this.paddedRowSize = paddedRowSize(width);
+        this.pixelData = pixelData;
+        this.inverted = inverted;
+    }
+
+    /**
+     * Constructor for creating a heap-backed BmpImage object from a raw data array.
+     * @param width The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     * @param pixelData The raw 1bpp pixel data (bottom-up, padded).
+     */
+    public BmpImage(int width, int height, byte[] pixelData) {
+        this(width, height, ByteBuffer.wrap(pixelData));
+    }
+
+    /**
+     * Calculates the padded row size for 1bpp (1 bit per pixel, rows aligned to 4 bytes).
+     * @param width The width of the image in pixels, not negative.
+     * @return The size of a single row in bytes, including padding.
+     */
+    public static int paddedRowSize(int width) {
+        return (int) ((width + 31L) / 32 * 4); // At most 2^28 for any int width, but width + 31 may overflow
+    }
+
+    /**
+     * Returns the offset into {@link #pixelData} of the given row.
+     * @param rowIndex The 0-based row index in top-down order (0 is the top row of the picture).
+     * @return The index of the first byte of that row.
+     */
+    public int rowOffset(int rowIndex) {
+        return (height - 1 - rowIndex) * paddedRowSize; // BMP pixel data is stored bottom-up
+    }
+
+    /**
+     * Returns a view of one row, without copying it.
+     * @param rowIndex The 0-based row index in top-down order.
+     * @return A buffer over the padded bytes of the row, positioned at its first byte.
+     */
+    public ByteBuffer row(int rowIndex) {
+        return pixelData.slice(rowOffset(rowIndex), paddedRowSize);
+    }
+
+    /**
+     * Returns the value of a single pixel, taking the palette into account.
+     * @param x The column, 0 is the leftmost pixel.
+     * @param y The row in top-down order.
+     * @return 1 for white, 0 for black.
+     */
+    public int getPixel(int x, int y) {
+        int bit = (pixelData.get(rowOffset(y) + (x >> 3)) >> (7 - (x & 7))) & 1;
+        return inverted ? bit ^ 1 : bit;
+    }
+
+    /**
+     * Reads a 1bpp BMP file from the given File object.
+     * @param file The BMP file to read.
+     * @return A BmpImage object containing the image data.
+     * @throws IOException If there's an error reading the file or if it's not a valid 1bpp BMP.
+     */
+    public static BmpImage read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            BmpHeader header = BmpHeader.read(channel);
+            if (header.pixelDataSize > Integer.MAX_VALUE - 8) {
+                throw new IOException("BMP pixel data too large to load into memory (" + header.pixelDataSize
+                        + " bytes). Use the streaming merge for images of this size.");
+            }
+
+            int totalPixelDataSize = (int) header.pixelDataSize;
+            byte[] pixelData = new byte[totalPixelDataSize];
+            try {
+                BmpHeader.readFully(channel, ByteBuffer.wrap(pixelData), header.dataOffset);
+            } catch (EOFException e) {
+                throw new IOException("Invalid BMP file: pixel data too short (expected " + totalPixelDataSize + " bytes).");
+            }
+
+            return new BmpImage(header.width, header.height, ByteBuffer.wrap(pixelData), header.inverted);
+        }
+    }
+
+    /**
+     * Maps a 1bpp BMP file read-only instead of reading it. The pixel data pages in lazily
+     * from the OS file cache as rows are touched and costs no heap, so this suits large
+     * inputs and border files that are merged over and over.
+     * @param file The BMP file to map.
+     * @return A BmpImage object backed by the mapped pixel data.
+     * @throws IOException If there's an error reading the file or if it's not a valid 1bpp BMP.
+     */
+    public static BmpImage map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            BmpHeader header = BmpHeader.read(channel);
+            if (header.pixelDataSize > Integer.MAX_VALUE) {
+                throw new IOException("BMP pixel data too large to map (" + header.pixelDataSize
+                        + " bytes). Use the streaming merge for images of this size.");
+            }
+            if (header.dataOffset + header.pixelDataSize > channel.size()) {
+                throw new IOException("Invalid BMP file: pixel data too short (expected " + header.pixelDataSize + " bytes).");
+            }
+
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer pixelData = channel.map(FileChannel.MapMode.READ_ONLY, header.dataOffset, header.pixelDataSize);
+            return new BmpImage(header.width, header.height, pixelData, header.inverted);
+        }
+    }
+
+    /**
+     * Writes this image to a BMP file. The pixel data is already in BMP layout,
+     * so it is written out as-is after the headers and palette, through a
+     * {@link PipelinedBmpWriter} so that only a few small buffers are needed on top of it.
+     * @param file The output BMP file.
+     * @throws IOException If there's an error writing the file.
+     */
+    public void write(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             PipelinedBmpWriter writer = new PipelinedBmpWriter(channel, width, height, inverted)) {
+            writer.writeRows(pixelData.duplicate().clear());
+        }
+    }
+
+    /**
+     * Writes this image to a file of the given format. Rows are re-packed one at a time into
+     * the format's row order and bit sense.
+     * @param file The output file.
+     * @param format The output format.
+     * @throws IOException If there's an error writing the file.
+     */
+    public void write(File file, OutputFormat format) throws IOException {
+        if (format == OutputFormat.BMP) {
+            write(file);
+            return;
+        }
+        int rowBytes = (width + 7) / 8;
+        byte lastByteMask = BmpMerger.lastByteMask(width);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             RowEncoder encoder = format.open(channel, width, height)) {
+            for (int i = 0; i < height; i++) {
+                int y = format.bottomUp() ? height - 1 - i : i;
+                ByteBuffer target = encoder.beginRow();
+                RowKernels.INSTANCE.copyRow(pixelData, rowOffset(y), target, target.position(),
+                        rowBytes, lastByteMask, inverted != format.blackIsOne());
+                encoder.endRow();
+            }
+        }
+    }
+
+    /**
+     * Builds the file header, info header and black/white palette of a 1bpp BMP.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @return The first {@link #PIXEL_DATA_OFFSET} bytes of the file.
+     */
+    public static byte[] createHeader(int width, int height) {
+        return createHeader(width, height, false);
+    }
+
+    /**
+     * Builds the file header, info header and palette of a 1bpp BMP.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param inverted True for a white-first palette.
+     * @return The first {@link #PIXEL_DATA_OFFSET} bytes of the file.
+     */
+    public static byte[] createHeader(int width, int height, boolean inverted) {
+        long pixelDataSize = (long) paddedRowSize(width) * height;
+        long fileSize = PIXEL_DATA_OFFSET + pixelDataSize; // File Header + Info Header + Palette + Pixel Data
+        if (fileSize > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException("Image too large for a BMP file: " + width + "x" + height);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(PIXEL_DATA_OFFSET).order(ByteOrder.LITTLE_ENDIAN);
+
+        // BMP File Header (14 bytes)
+        buffer.putShort((short) 0x4D42); // Signature "BM"
+        buffer.putInt((int) fileSize);   // Total file size (unsigned)
+        buffer.putInt(0);                // Reserved (set to 0)
+        buffer.putInt(PIXEL_DATA_OFFSET); // Offset to pixel data (File Header + Info Header + Palette)
+
+        // BMP Info Header (40 bytes - BITMAPINFOHEADER)
+        buffer.putInt(INFO_HEADER_SIZE); // Size of info header (40 bytes)
+        buffer.putInt(width);            // Image width
+        buffer.putInt(height);           // Image height
+        buffer.putShort((short) 1);      // Planes (must be 1)
+        buffer.putShort((short) 1);      // Bits per pixel (1 for 1bpp)
+        buffer.putInt(0);                // Compression method (0 = BI_RGB, no compression)
+        buffer.putInt((int) pixelDataSize); // Image size (can be 0 for BI_RGB, but good practice to set)
+        buffer.putInt(2835);             // X pixels per meter (72 DPI = 2835 ppm)
+        buffer.putInt(2835);             // Y pixels per meter (72 DPI = 2835 ppm)
+        buffer.putInt(2);                // Colors used (2 for 1bpp: black and white)
+        buffer.putInt(0);                // Important colors (0 means all are important)
+
+        // Color Palette (8 bytes for 1bpp: Black and White)
+        // Entry 0: Black (0x00000000 BGRA), swapped with entry 1 for an inverted image
+        buffer.putInt(inverted ? 0x00FFFFFF : 0x00000000);
+        // Entry 1: White (0x00FFFFFF BGRA)
+        buffer.putInt(inverted ? 0x00000000 : 0x00FFFFFF);
+
+        return buffer.array();
+    }
+}
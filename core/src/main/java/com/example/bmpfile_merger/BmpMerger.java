@@ -0,0 +1,416 @@
+package com.example.bmpfile_merger;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Merge engine for 1bpp BMP images.
+ * <p>
+ * Every line of file1 (the body) whose last pixel is white is replaced by the next line
+ * of file2 (the border, reused cyclically); every other line of file1 is kept without its
+ * last pixel. Rows stay packed the whole way through, so the result can be written out as-is.
+ * Inputs with a white-first palette are inverted on the fly; the result is always black-first.
+ */
+public final class BmpMerger {
+
+    /** Upper bound for the body rows held in memory at once by {@link #mergeStreaming}. */
+    static final int STREAM_WINDOW_BYTES = 1 << 20;
+
+    /** Rows merged between two progress reports / cancellation checks. */
+    static final int PROGRESS_ROWS = 256;
+
+    /** Bytes of a write buffer filled by one task of {@link #mergeTo}. */
+    static final int TASK_BYTES = 1 << 16;
+
+    private BmpMerger() {
+    }
+
+    /**
+     * Merges file1 with file2.
+     * <p>
+     * The merge runs in two phases: a scan of the last-bit column of file1 builds the
+     * {@link MergeSchedule}, then the rows are copied in parallel stripes, each stripe starting
+     * at the file2 line the schedule gives it.
+     * @param file1Bmp The body image, exactly 1 pixel wider than file2.
+     * @param file2Bmp The border image.
+     * @return The merged image, with the width of file2 and the height of file1.
+     * @throws IllegalArgumentException If the width condition is not met.
+     */
+    public static BmpImage merge(BmpImage file1Bmp, BmpImage file2Bmp) {
+        checkWidths(file1Bmp, file2Bmp);
+        return merge(file1Bmp, file2Bmp, MergeSchedule.scan(file1Bmp));
+    }
+
+    /**
+     * Merges file1 with file2 using a schedule already scanned from file1.
+     * @param file1Bmp The body image, exactly 1 pixel wider than file2.
+     * @param file2Bmp The border image.
+     * @param schedule The schedule of file1.
+     * @return The merged image, with the width of file2 and the height of file1.
+     * @throws IllegalArgumentException If the width condition is not met.
+     */
+    public static BmpImage merge(BmpImage file1Bmp, BmpImage file2Bmp, MergeSchedule schedule) {
+        return merge(file1Bmp, file2Bmp, schedule, MergeMonitor.NONE);
+    }
+
+    /**
+     * Merges file1 with file2 using a schedule already scanned from file1, reporting progress.
+     * @param file1Bmp The body image, exactly 1 pixel wider than file2.
+     * @param file2Bmp The border image.
+     * @param schedule The schedule of file1.
+     * @param monitor Receives progress and is polled for cancellation.
+     * @return The merged image, with the width of file2 and the height of file1.
+     * @throws IllegalArgumentException If the width condition is not met.
+     * @throws java.util.concurrent.CancellationException If the monitor cancelled the merge.
+     */
+    public static BmpImage merge(BmpImage file1Bmp, BmpImage file2Bmp, MergeSchedule schedule, MergeMonitor monitor) {
+        checkWidths(file1Bmp, file2Bmp);
+        checkBorderHeight(file2Bmp, schedule);
+
+        int mergedWidth = file2Bmp.width;
+        int mergedHeight = file1Bmp.height;
+        byte[] mergedPixels = new byte[BmpImage.paddedRowSize(mergedWidth) * mergedHeight];
+        BmpImage merged = new BmpImage(mergedWidth, mergedHeight, mergedPixels);
+
+        mergeInto(file1Bmp, file2Bmp, schedule, merged, false, false, 0, monitor);
+        return merged;
+    }
+
+    /**
+     * Rewrites rows of an existing merge result in place, in parallel stripes. Rows above
+     * allRowsFrom are only rewritten if their source is selected; all rows from allRowsFrom down are.
+     * @param merged A merge result with the width of file2 and the height of file1, backed by an array.
+     * @param bodyRows Whether rows kept from file1 above allRowsFrom are rewritten.
+     * @param borderRows Whether rows taken from file2 above allRowsFrom are rewritten.
+     * @param allRowsFrom The first row that is rewritten whatever its source.
+     * @throws java.util.concurrent.CancellationException If the monitor cancelled the merge.
+     */
+    static void mergeInto(BmpImage file1Bmp, BmpImage file2Bmp, MergeSchedule schedule, BmpImage merged,
+                          boolean bodyRows, boolean borderRows, int allRowsFrom, MergeMonitor monitor) {
+        byte[] mergedPixels = merged.pixelData.array();
+        MergeSchedule.forEachStripe(schedule.stripeCount(), stripe -> {
+            int from = stripe * MergeSchedule.STRIPE_ROWS;
+            mergeRows(file1Bmp, file2Bmp, schedule, mergedPixels, merged, from, Math.min(merged.height, from + MergeSchedule.STRIPE_ROWS),
+                    bodyRows, borderRows, allRowsFrom, monitor);
+        });
+    }
+
+    /**
+     * Merges the selected rows of [from, to) into the merged image, see {@link #mergeInto}.
+     */
+    static void mergeRows(BmpImage file1Bmp, BmpImage file2Bmp, MergeSchedule schedule, byte[] mergedPixels, BmpImage merged,
+                          int from, int to, boolean bodyRows, boolean borderRows, int allRowsFrom, MergeMonitor monitor) {
+        int rowBytes = (merged.width + 7) / 8; // Bytes holding actual pixels, without the padding
+        byte lastByteMask = lastByteMask(merged.width);
+
+        int file2CurrentLineIndex = schedule.borderRowsBefore(from); // Tracks the current line in file2.bmp, with rollover
+
+        for (int y = from; y < to; y++) {
+            if ((y - from) % PROGRESS_ROWS == 0 && y > from) {
+                reportProgress(monitor, PROGRESS_ROWS);
+            }
+
+            boolean allRows = y >= allRowsFrom;
+            if (schedule.isBorderRow(y)) { // Last bit is WHITE (1), take the line from file2.bmp, handling rollover
+                if (allRows || borderRows) {
+                    copyRow(file2Bmp, file2CurrentLineIndex % file2Bmp.height, mergedPixels, merged.rowOffset(y), rowBytes, lastByteMask);
+                }
+                file2CurrentLineIndex++;
+            } else if (allRows || bodyRows) { // Last bit is BLACK (0), keep file1.bmp line as is (without its last bit)
+                copyRow(file1Bmp, y, mergedPixels, merged.rowOffset(y), rowBytes, lastByteMask);
+            }
+        }
+        if (to > from) {
+            reportProgress(monitor, (to - from - 1) % PROGRESS_ROWS + 1);
+        }
+    }
+
+    /**
+     * Merges file1 with file2 straight into a BMP file, without holding the merged image in memory.
+     * <p>
+     * Rows are merged into the buffers of a {@link PipelinedBmpWriter}, in parallel within each
+     * buffer, and the writer writes each full buffer while the next one is being merged.
+     * @param file1Bmp The body image, exactly 1 pixel wider than file2.
+     * @param file2Bmp The border image.
+     * @param schedule The schedule of file1.
+     * @param output The channel to write the BMP file to, positioned at its start.
+     * @param monitor Receives progress and is polled for cancellation.
+     * @throws IOException If writing fails.
+     * @throws IllegalArgumentException If the width condition is not met.
+     * @throws java.util.concurrent.CancellationException If the monitor cancelled the merge.
+     */
+    public static void mergeTo(BmpImage file1Bmp, BmpImage file2Bmp, MergeSchedule schedule,
+                               WritableByteChannel output, MergeMonitor monitor) throws IOException {
+        mergeTo(file1Bmp, file2Bmp, schedule, OutputFormat.BMP, output, monitor);
+    }
+
+    /**
+     * Merges file1 with file2 straight into a file of the given format, without holding the
+     * merged image in memory. Merged rows go to the format's {@link RowEncoder} in the row order
+     * and bit sense the format stores.
+     * <p>
+     * For formats with fixed-size rows, each buffer of the {@link PipelinedBmpWriter} is filled
+     * by parallel tasks, every task starting at the file2 line the schedule gives its first row,
+     * so a single large merge still uses all cores while the previous buffer is being written.
+     * Compressed formats take the rows one at a time, in order.
+     * @param file1Bmp The body image, exactly 1 pixel wider than file2.
+     * @param file2Bmp The border image.
+     * @param schedule The schedule of file1.
+     * @param format The output format.
+     * @param output The channel to write the file to, positioned at its start.
+     * @param monitor Receives progress and is polled for cancellation.
+     * @throws IOException If writing fails.
+     * @throws IllegalArgumentException If the width condition is not met.
+     * @throws java.util.concurrent.CancellationException If the monitor cancelled the merge.
+     */
+    public static void mergeTo(BmpImage file1Bmp, BmpImage file2Bmp, MergeSchedule schedule, OutputFormat format,
+                               WritableByteChannel output, MergeMonitor monitor) throws IOException {
+        checkWidths(file1Bmp, file2Bmp);
+        checkBorderHeight(file2Bmp, schedule);
+
+        try (RowEncoder encoder = format.open(output, file2Bmp.width, file1Bmp.height)) {
+            if (encoder instanceof PipelinedBmpWriter writer) {
+                mergeBuffers(file1Bmp, file2Bmp, schedule, format, writer, monitor);
+            } else {
+                mergeRowByRow(file1Bmp, file2Bmp, schedule, format, encoder, monitor);
+            }
+        }
+    }
+
+    /**
+     * Fills the writer one buffer at a time. The rows of a buffer are split into tasks of about
+     * {@link #TASK_BYTES} bytes; each task walks its rows top-down from the file2 line
+     * {@link MergeSchedule#borderRowsBefore} gives its topmost row.
+     */
+    private static void mergeBuffers(BmpImage file1Bmp, BmpImage file2Bmp, MergeSchedule schedule, OutputFormat format,
+                                     PipelinedBmpWriter writer, MergeMonitor monitor) throws IOException {
+        int mergedWidth = file2Bmp.width;
+        int mergedHeight = file1Bmp.height;
+        int rowBytes = (mergedWidth + 7) / 8;
+        byte lastByteMask = lastByteMask(mergedWidth);
+        boolean bottomUp = format.bottomUp();
+        int stride = writer.paddedRowSize();
+        int taskRows = Math.max(1, TASK_BYTES / stride);
+
+        for (int rowsDone = 0; rowsDone < mergedHeight; ) {
+            ByteBuffer target = writer.beginRow();
+            int start = target.position();
+            int first = rowsDone; // File order index of the buffer's first row
+            int rows = writer.rowsFree();
+            MergeSchedule.forEachStripe((rows + taskRows - 1) / taskRows, task -> {
+                int from = first + task * taskRows;
+                int to = Math.min(first + rows, from + taskRows);
+                int top = bottomUp ? mergedHeight - to : from;
+                int bottom = bottomUp ? mergedHeight - from : to;
+                int file2Line = schedule.borderRowsBefore(top);
+                for (int y = top; y < bottom; y++) {
+                    BmpImage source;
+                    int sourceRow;
+                    if (schedule.isBorderRow(y)) { // Last bit is WHITE (1), take the line from file2.bmp, handling rollover
+                        source = file2Bmp;
+                        sourceRow = file2Line++ % file2Bmp.height;
+                    } else { // Last bit is BLACK (0), keep file1.bmp line as is (without its last bit)
+                        source = file1Bmp;
+                        sourceRow = y;
+                    }
+                    int index = (bottomUp ? mergedHeight - 1 - y : y) - first;
+                    RowKernels.INSTANCE.copyRow(source.pixelData, source.rowOffset(sourceRow), target, start + index * stride,
+                            rowBytes, lastByteMask, source.inverted != format.blackIsOne());
+                }
+                reportProgress(monitor, bottom - top);
+            });
+            writer.endRows(rows);
+            rowsDone += rows;
+        }
+    }
+
+    private static void mergeRowByRow(BmpImage file1Bmp, BmpImage file2Bmp, MergeSchedule schedule, OutputFormat format,
+                                      RowEncoder encoder, MergeMonitor monitor) throws IOException {
+        int mergedWidth = file2Bmp.width;
+        int mergedHeight = file1Bmp.height;
+        int rowBytes = (mergedWidth + 7) / 8;
+        byte lastByteMask = lastByteMask(mergedWidth);
+        boolean bottomUp = format.bottomUp();
+
+        // Walking up from the bottom row the file2 line counter counts down from the total,
+        // walking down from the top row it counts up from 0
+        int file2CurrentLineIndex = bottomUp ? schedule.borderRowCount() : 0;
+        for (int rowsDone = 1; rowsDone <= mergedHeight; rowsDone++) {
+            int y = bottomUp ? mergedHeight - rowsDone : rowsDone - 1;
+            ByteBuffer target = encoder.beginRow();
+            BmpImage source;
+            int sourceRow;
+            if (schedule.isBorderRow(y)) { // Last bit is WHITE (1), take the line from file2.bmp, handling rollover
+                source = file2Bmp;
+                if (bottomUp) {
+                    file2CurrentLineIndex--;
+                    sourceRow = file2CurrentLineIndex % file2Bmp.height;
+                } else {
+                    sourceRow = file2CurrentLineIndex % file2Bmp.height;
+                    file2CurrentLineIndex++;
+                }
+            } else { // Last bit is BLACK (0), keep file1.bmp line as is (without its last bit)
+                source = file1Bmp;
+                sourceRow = y;
+            }
+            RowKernels.INSTANCE.copyRow(source.pixelData, source.rowOffset(sourceRow), target, target.position(),
+                    rowBytes, lastByteMask, source.inverted != format.blackIsOne());
+            encoder.endRow();
+
+            if (rowsDone % PROGRESS_ROWS == 0 || rowsDone == mergedHeight) {
+                reportProgress(monitor, rowsDone % PROGRESS_ROWS == 0 ? PROGRESS_ROWS : rowsDone % PROGRESS_ROWS);
+            }
+        }
+    }
+
+    /**
+     * Reports merged rows and stops the merge if the monitor cancelled it.
+     * @throws CancellationException If the monitor cancelled the merge.
+     */
+    private static void reportProgress(MergeMonitor monitor, int rows) {
+        monitor.rowsMerged(rows);
+        if (monitor.isCancelled()) {
+            throw new CancellationException("Merge cancelled.");
+        }
+    }
+
+    /**
+     * Merges file1 with file2 without loading file1 into memory.
+     * <p>
+     * Only file2 stays resident, since its lines are reused cyclically. File1 is read a bounded
+     * window of rows at a time, back-to-front, because BMP stores the bottom row first while the
+     * merge has to walk the picture from the top. Each merged window is written straight to its
+     * place in the output file, so peak memory does not depend on the height of file1.
+     * @param file1 The body BMP file, exactly 1 pixel wider than file2.
+     * @param file2Bmp The border image.
+     * @param output The merged BMP file to create.
+     * @return The number of rows taken from file2.
+     * @throws IOException If there's an error reading file1 or writing the output.
+     * @throws IllegalArgumentException If the width condition is not met.
+     */
+    public static int mergeStreaming(File file1, BmpImage file2Bmp, File output) throws IOException {
+        return mergeStreaming(file1, file2Bmp, output, MergeMonitor.NONE);
+    }
+
+    /**
+     * Streaming merge as {@link #mergeStreaming(File, BmpImage, File)}, reporting progress after every window.
+     * @throws java.util.concurrent.CancellationException If the monitor cancelled the merge.
+     */
+    public static int mergeStreaming(File file1, BmpImage file2Bmp, File output, MergeMonitor monitor) throws IOException {
+        try (FileChannel in = FileChannel.open(file1.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            BmpHeader file1Header = BmpHeader.read(in);
+            checkWidths(file1Header.width, file2Bmp.width);
+
+            int mergedWidth = file2Bmp.width;
+            int mergedHeight = file1Header.height;
+            int inRowSize = file1Header.paddedRowSize;
+            int outRowSize = BmpImage.paddedRowSize(mergedWidth);
+            int rowBytes = (mergedWidth + 7) / 8;
+            byte lastByteMask = lastByteMask(mergedWidth);
+
+            int lastBitX = file1Header.width - 1;
+            int lastBitByteIndex = lastBitX / 8;
+            int lastBitOffsetInByte = 7 - (lastBitX % 8);
+            int white = file1Header.inverted ? 0 : 1;
+
+            // The output size is known up front, so the header goes first
+            BmpHeader.writeFully(out, ByteBuffer.wrap(BmpImage.createHeader(mergedWidth, mergedHeight)), 0);
+
+            int windowRows = Math.max(1, STREAM_WINDOW_BYTES / inRowSize);
+            ByteBuffer inWindow = ByteBuffer.allocate(windowRows * inRowSize);
+            byte[] outWindow = new byte[windowRows * outRowSize]; // Padding bytes are never written, so they stay zero
+
+            int file2CurrentLineIndex = 0;
+
+            for (int top = 0; top < mergedHeight; top += windowRows) {
+                int rows = Math.min(windowRows, mergedHeight - top);
+                // Top-down rows [top, top + rows) are stored as one contiguous run of raw rows starting at firstRawRow
+                long firstRawRow = mergedHeight - top - rows;
+
+                inWindow.clear().limit(rows * inRowSize);
+                try {
+                    BmpHeader.readFully(in, inWindow, file1Header.dataOffset + firstRawRow * inRowSize);
+                } catch (EOFException e) {
+                    throw new IOException("Invalid BMP file: pixel data too short (expected " + file1Header.pixelDataSize + " bytes).");
+                }
+
+                for (int i = 0; i < rows; i++) {
+                    int windowRow = rows - 1 - i; // Row top + i, counted from the bottom of the window
+                    int file1RowOffset = windowRow * inRowSize;
+                    int lastBitOfFile1Row = (inWindow.get(file1RowOffset + lastBitByteIndex) >> lastBitOffsetInByte) & 1;
+
+                    if (lastBitOfFile1Row == white) {
+                        if (file2Bmp.height == 0) {
+                            throw new IllegalArgumentException("File2.bmp has no lines to merge.");
+                        }
+                        copyRow(file2Bmp, file2CurrentLineIndex % file2Bmp.height,
+                                outWindow, windowRow * outRowSize, rowBytes, lastByteMask);
+                        file2CurrentLineIndex++;
+                    } else {
+                        RowKernels.INSTANCE.copyRow(inWindow, file1RowOffset, outWindow, windowRow * outRowSize,
+                                rowBytes, lastByteMask, file1Header.inverted);
+                    }
+                }
+
+                BmpHeader.writeFully(out, ByteBuffer.wrap(outWindow, 0, rows * outRowSize),
+                        BmpImage.PIXEL_DATA_OFFSET + firstRawRow * outRowSize);
+                reportProgress(monitor, rows);
+            }
+            return file2CurrentLineIndex;
+        }
+    }
+
+    /**
+     * Checks the width condition between file1 and file2.
+     * @throws IllegalArgumentException If file1 is not exactly 1 pixel wider than file2.
+     */
+    public static void checkWidths(BmpImage file1Bmp, BmpImage file2Bmp) {
+        checkWidths(file1Bmp.width, file2Bmp.width);
+    }
+
+    /**
+     * Checks that file2 has lines to give if the schedule takes any.
+     * @throws IllegalArgumentException If file2 is empty but needed.
+     */
+    public static void checkBorderHeight(BmpImage file2Bmp, MergeSchedule schedule) {
+        if (file2Bmp.height == 0 && schedule.borderRowCount() > 0) {
+            throw new IllegalArgumentException("File2.bmp has no lines to merge.");
+        }
+    }
+
+    static void checkWidths(int file1Width, int file2Width) {
+        if (file1Width != file2Width + 1) {
+            throw new IllegalArgumentException("Condition Failed: File1.bmp width (" + file1Width
+                    + ") must be 1 pixel greater than File2.bmp width (" + file2Width + ").");
+        }
+    }
+
+    /**
+     * Copies the pixel bytes of one row and clears the bits past the last column, so that
+     * the dropped file1 column and any garbage in the source padding never reach the output.
+     * The padding bytes of the destination row are left untouched (zero), and a white-first
+     * source row is inverted to black-first.
+     * The source is read with an absolute bulk get, straight out of the heap array or file mapping.
+     */
+    static void copyRow(BmpImage source, int sourceRow, byte[] target, int targetOffset, int rowBytes, byte lastByteMask) {
+        RowKernels.INSTANCE.copyRow(source.pixelData, source.rowOffset(sourceRow), target, targetOffset,
+                rowBytes, lastByteMask, source.inverted);
+    }
+
+    /**
+     * @param width The width of the row in pixels.
+     * @return A mask keeping only the bits of the last pixel byte that belong to the row.
+     */
+    static byte lastByteMask(int width) {
+        int usedBits = width % 8;
+        return usedBits == 0 ? (byte) 0xFF : (byte) (0xFF << (8 - usedBits));
+    }
+}
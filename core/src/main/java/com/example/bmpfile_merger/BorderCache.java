@@ -0,0 +1,199 @@
+package com.example.bmpfile_merger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * A bounded cache of parsed border images (file2), shared by parallel merges.
+ * <p>
+ * Entries are keyed on the canonical path, length and last-modified time of the file, so an
+ * edited border is read again. The least recently used entries are evicted once the pixel
+ * data of all entries exceeds the byte budget. Concurrent requests for a border that is being
+ * read wait for that read instead of starting their own: a miss registers a future for its key
+ * under the same lock that checks the entries, so each version of a border is read once.
+ * An eviction listener learns which files were dropped, e.g. to delete uploaded copies.
+ */
+public class BorderCache {
+
+    /** Default byte budget: 256 MB of pixel data. */
+    public static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+    /**
+     * Identifies one version of a border file.
+     */
+    record Key(String canonicalPath, long length, long lastModified) {
+    }
+
+    /**
+     * A snapshot of the cache counters.
+     * @param hits Requests served from memory, including ones that waited for a concurrent read.
+     * @param misses Requests that read the file.
+     * @param evictions Entries dropped to stay within the byte budget.
+     * @param entries The number of cached borders.
+     * @param bytes The pixel bytes held by the cached borders.
+     */
+    public record Stats(long hits, long misses, long evictions, int entries, long bytes) {
+        @Override
+        public String toString() {
+            return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+                    + ", entries=" + entries + ", bytes=" + bytes;
+        }
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, BmpImage> entries = new LinkedHashMap<>(16, 0.75f, true); // Access order = LRU first
+    private final Map<Key, CompletableFuture<BmpImage>> loading = new HashMap<>(); // Guarded by this, like entries
+    private long totalBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private volatile Consumer<File> evictionListener = file -> { };
+
+    public BorderCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxBytes The byte budget for the pixel data of all cached borders.
+     */
+    public BorderCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must not be negative, got " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Sets what happens to the file of an evicted entry. The listener is called on the thread
+     * that caused the eviction, outside the cache lock, so it may call back into the cache.
+     * @param listener Receives the canonical file of each evicted entry.
+     */
+    public void setEvictionListener(Consumer<File> listener) {
+        this.evictionListener = listener;
+    }
+
+    /**
+     * Returns the parsed border image of a file, reading it only if no current copy is cached.
+     * @param file The border BMP file.
+     * @return The parsed image. It is shared, so callers must not modify it.
+     * @throws IOException If the file cannot be read or is not a valid 1bpp BMP.
+     */
+    public BmpImage get(File file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        Key key = new Key(file.getCanonicalPath(), attributes.size(), attributes.lastModifiedTime().toMillis());
+
+        CompletableFuture<BmpImage> ownLoad = new CompletableFuture<>();
+        CompletableFuture<BmpImage> load;
+        synchronized (this) {
+            BmpImage cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            load = loading.computeIfAbsent(key, k -> ownLoad);
+            if (load != ownLoad) {
+                hits++;
+            }
+        }
+        if (load != ownLoad) {
+            return await(load);
+        }
+
+        try {
+            BmpImage image = BmpImage.read(file);
+            List<Key> evicted;
+            synchronized (this) {
+                evicted = put(key, image); // Before the future is dropped, so later requests find the entry
+                loading.remove(key);
+            }
+            ownLoad.complete(image);
+            for (Key evictedKey : evicted) {
+                evictionListener.accept(new File(evictedKey.canonicalPath()));
+            }
+            return image;
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                loading.remove(key);
+            }
+            ownLoad.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static BmpImage await(CompletableFuture<BmpImage> load) throws IOException {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw new IOException(ioException.getMessage(), ioException);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return The keys evicted to make room, least recently used first.
+     */
+    private synchronized List<Key> put(Key key, BmpImage image) {
+        misses++;
+        long size = image.pixelData.capacity();
+        if (size > maxBytes) {
+            return List.of(); // Never fits; the caller still gets the image
+        }
+
+        BmpImage previous = entries.put(key, image);
+        if (previous != null) {
+            totalBytes -= previous.pixelData.capacity();
+        }
+        totalBytes += size;
+
+        List<Key> evicted = new ArrayList<>();
+        Iterator<Map.Entry<Key, BmpImage>> leastRecentlyUsed = entries.entrySet().iterator();
+        while (totalBytes > maxBytes) {
+            Map.Entry<Key, BmpImage> entry = leastRecentlyUsed.next();
+            totalBytes -= entry.getValue().pixelData.capacity();
+            evicted.add(entry.getKey());
+            leastRecentlyUsed.remove();
+            evictions++;
+        }
+        return evicted;
+    }
+
+    /**
+     * Drops every cached version of a file, e.g. because it was deleted. Not counted as an
+     * eviction, and the eviction listener is not called.
+     * @param file The border BMP file.
+     * @throws IOException If the canonical path of the file cannot be determined.
+     */
+    public void invalidate(File file) throws IOException {
+        String canonicalPath = file.getCanonicalPath();
+        synchronized (this) {
+            Iterator<Map.Entry<Key, BmpImage>> entryIterator = entries.entrySet().iterator();
+            while (entryIterator.hasNext()) {
+                Map.Entry<Key, BmpImage> entry = entryIterator.next();
+                if (entry.getKey().canonicalPath().equals(canonicalPath)) {
+                    totalBytes -= entry.getValue().pixelData.capacity();
+                    entryIterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The current counters.
+     */
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, entries.size(), totalBytes);
+    }
+}
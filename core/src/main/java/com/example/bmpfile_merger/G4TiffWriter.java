@@ -0,0 +1,380 @@
+package com.example.bmpfile_merger;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes a 1bpp image as a single-strip TIFF compressed with CCITT Group 4 (T.6), top row first.
+ * <p>
+ * Each row is coded against the row above it as it arrives, so only two rows are kept. Rows
+ * with long white runs, such as printer art, shrink to a few bytes each. Rows use bit 1 for
+ * black, and the file says so with PhotometricInterpretation WhiteIsZero.
+ * <p>
+ * The compressed size is only known at the end, so the directory (IFD) follows the strip. On a
+ * {@link SeekableByteChannel}, such as a file, the strip is streamed out and the directory offset
+ * in the header is filled in at the end. Any other channel gets the whole file when the writer
+ * is closed; until then, a strip larger than the output buffer is spooled to a temporary file.
+ */
+public final class G4TiffWriter implements RowEncoder {
+
+    private static final int OUTPUT_BYTES = 64 * 1024;
+    private static final int HEADER_SIZE = 8;
+    private static final int ENTRIES = 14;
+    private static final int IFD_SIZE = 2 + ENTRIES * 12 + 4;
+    private static final int DPI = 72; // Same as the BMP header
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    // T.4 code words as written, most significant bit first. Index n of the terminating codes
+    // is a run of n pixels; index n of the make-up codes is a run of (n + 1) * 64.
+    private static final String[] WHITE_TERMINATING = {
+            "00110101", "000111", "0111", "1000", "1011", "1100", "1110", "1111",
+            "10011", "10100", "00111", "01000", "001000", "000011", "110100", "110101",
+            "101010", "101011", "0100111", "0001100", "0001000", "0010111", "0000011", "0000100",
+            "0101000", "0101011", "0010011", "0100100", "0011000", "00000010", "00000011", "00011010",
+            "00011011", "00010010", "00010011", "00010100", "00010101", "00010110", "00010111", "00101000",
+            "00101001", "00101010", "00101011", "00101100", "00101101", "00000100", "00000101", "00001010",
+            "00001011", "01010010", "01010011", "01010100", "01010101", "00100100", "00100101", "01011000",
+            "01011001", "01011010", "01011011", "01001010", "01001011", "00110010", "00110011", "00110100"};
+    private static final String[] WHITE_MAKE_UP = {
+            "11011", "10010", "010111", "0110111", "00110110", "00110111", "01100100", "01100101",
+            "01101000", "01100111", "011001100", "011001101", "011010010", "011010011", "011010100", "011010101",
+            "011010110", "011010111", "011011000", "011011001", "011011010", "011011011", "010011000", "010011001",
+            "010011010", "011000", "010011011"};
+    private static final String[] BLACK_TERMINATING = {
+            "0000110111", "010", "11", "10", "011", "0011", "0010", "00011",
+            "000101", "000100", "0000100", "0000101", "0000111", "00000100", "00000111", "000011000",
+            "0000010111", "0000011000", "0000001000", "00001100111", "00001101000", "00001101100", "00000110111", "00000101000",
+            "00000010111", "00000011000", "000011001010", "000011001011", "000011001100", "000011001101", "000001101000", "000001101001",
+            "000001101010", "000001101011", "000011010010", "000011010011", "000011010100", "000011010101", "000011010110", "000011010111",
+            "000001101100", "000001101101", "000011011010", "000011011011", "000001010100", "000001010101", "000001010110", "000001010111",
+            "000001100100", "000001100101", "000001010010", "000001010011", "000000100100", "000000110111", "000000111000", "000000100111",
+            "000000101000", "000001011000", "000001011001", "000000101011", "000000101100", "000001011010", "000001100110", "000001100111"};
+    private static final String[] BLACK_MAKE_UP = {
+            "0000001111", "000011001000", "000011001001", "000001011011", "000000110011", "000000110100", "000000110101", "0000001101100",
+            "0000001101101", "0000001001010", "0000001001011", "0000001001100", "0000001001101", "0000001110010", "0000001110011", "0000001110100",
+            "0000001110101", "0000001110110", "0000001110111", "0000001010010", "0000001010011", "0000001010100", "0000001010101", "0000001011010",
+            "0000001011011", "0000001100100", "0000001100101"};
+    // Shared by both colours: runs of 1792 to 2560 pixels
+    private static final String[] EXTENDED_MAKE_UP = {
+            "00000001000", "00000001100", "00000001101", "000000010010", "000000010011", "000000010100", "000000010101",
+            "000000010110", "000000010111", "000000011100", "000000011101", "000000011110", "000000011111"};
+    // Vertical mode codes for a1 - b1 = -3 .. 3
+    private static final String[] VERTICAL = {"0000010", "000010", "010", "1", "011", "000011", "0000011"};
+    private static final String PASS = "0001";
+    private static final String HORIZONTAL = "001";
+    private static final String EOL = "000000000001";
+
+    private static final int[][] WHITE_CODES = codes(WHITE_TERMINATING, WHITE_MAKE_UP);
+    private static final int[][] BLACK_CODES = codes(BLACK_TERMINATING, BLACK_MAKE_UP);
+    private static final int[] VERTICAL_CODES = codes(VERTICAL);
+    private static final int PASS_CODE = code(PASS);
+    private static final int HORIZONTAL_CODE = code(HORIZONTAL);
+    private static final int EOL_CODE = code(EOL);
+
+    private final WritableByteChannel channel;
+    private final SeekableByteChannel seekable; // Null if the strip is held back until close()
+    private final long start;
+    private final int width;
+    private final int height;
+
+    private final byte[][] rows; // The row being written and the row above it, taking turns
+    private final ByteBuffer[] rowBuffers;
+    private int current;
+    private int rowsWritten;
+
+    private final ByteBuffer output = ByteBuffer.allocate(OUTPUT_BYTES);
+    private FileChannel spool; // The held-back strip once it outgrows the output buffer, deleted on close
+    private long stripBytes;
+    private long bits; // Pending code bits, the last bitCount of them not written yet
+    private int bitCount;
+    private boolean closed;
+
+    /**
+     * Starts a writer. The channel must be positioned at the start of the file and is not closed
+     * by this writer.
+     * @param channel The channel to write to.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @throws IOException If the header cannot be written.
+     */
+    public G4TiffWriter(WritableByteChannel channel, int width, int height) throws IOException {
+        this.channel = channel;
+        this.seekable = channel instanceof SeekableByteChannel seekableChannel ? seekableChannel : null;
+        this.start = seekable != null ? seekable.position() : 0;
+        this.width = width;
+        this.height = height;
+        this.rows = new byte[2][(width + 7) / 8]; // All white above the first row
+        this.rowBuffers = new ByteBuffer[] {ByteBuffer.wrap(rows[0]), ByteBuffer.wrap(rows[1])};
+
+        if (seekable != null) {
+            writeFully(channel, header(0)); // The directory offset is filled in by close()
+        }
+    }
+
+    @Override
+    public ByteBuffer beginRow() {
+        if (rowsWritten == height) {
+            throw new IllegalStateException("All " + height + " rows have been written.");
+        }
+        return rowBuffers[current].clear();
+    }
+
+    @Override
+    public void endRow() throws IOException {
+        encodeRow(rows[current], rows[current ^ 1]);
+        current ^= 1;
+        rowsWritten++;
+    }
+
+    /**
+     * Codes the current row against the reference row, following T.6 section 2.2: pass mode when
+     * the reference run ends before the coding run, vertical mode when their changes are at most
+     * three pixels apart, horizontal mode with two run lengths otherwise.
+     */
+    private void encodeRow(byte[] coding, byte[] reference) throws IOException {
+        int a0 = 0;
+        int a1 = pixel(coding, 0) != 0 ? 0 : nextChange(coding, 0, 0);
+        int b1 = pixel(reference, 0) != 0 ? 0 : nextChange(reference, 0, 0);
+        while (true) {
+            int b2 = b1 < width ? nextChange(reference, b1, pixel(reference, b1)) : width;
+            if (b2 < a1) {
+                putCode(PASS_CODE);
+                a0 = b2;
+            } else if (Math.abs(a1 - b1) <= 3) {
+                putCode(VERTICAL_CODES[a1 - b1 + 3]);
+                a0 = a1;
+            } else {
+                int a2 = a1 < width ? nextChange(coding, a1, pixel(coding, a1)) : width;
+                putCode(HORIZONTAL_CODE);
+                if (a0 + a1 == 0 || pixel(coding, a0) == 0) { // a0 white; at the start it is an imaginary white pixel
+                    putRun(a1 - a0, WHITE_CODES);
+                    putRun(a2 - a1, BLACK_CODES);
+                } else {
+                    putRun(a1 - a0, BLACK_CODES);
+                    putRun(a2 - a1, WHITE_CODES);
+                }
+                a0 = a2;
+            }
+            if (a0 >= width) {
+                return;
+            }
+            int color = pixel(coding, a0);
+            a1 = nextChange(coding, a0, color);
+            b1 = nextChange(reference, a0, color ^ 1);
+            b1 = nextChange(reference, b1, color);
+        }
+    }
+
+    private int pixel(byte[] pixels, int x) {
+        return x < width ? (pixels[x >> 3] >> (7 - (x & 7))) & 1 : 0;
+    }
+
+    /**
+     * @return The first position at or after {@code from} whose pixel differs from {@code color},
+     *         or the width if there is none.
+     */
+    private int nextChange(byte[] pixels, int from, int color) {
+        if (from >= width) {
+            return width;
+        }
+        int same = color == 0 ? 0 : 0xFF; // XOR-ed away, leaving set bits where the colour changes
+        int i = from >> 3;
+        int changes = ((pixels[i] ^ same) & 0xFF) & (0xFF >>> (from & 7));
+        while (changes == 0) {
+            i++;
+            long sameLong = color == 0 ? 0 : -1L;
+            while (i + 8 <= pixels.length && (long) LONGS.get(pixels, i) == sameLong) {
+                i += 8; // Skips long runs, typically white, eight bytes at a time
+            }
+            if (i >= pixels.length) {
+                return width;
+            }
+            changes = (pixels[i] ^ same) & 0xFF;
+        }
+        return Math.min(width, (i << 3) + Integer.numberOfLeadingZeros(changes) - 24);
+    }
+
+    private void putRun(int run, int[][] codes) throws IOException {
+        while (run >= 2560 + 64) {
+            putCode(codes[1][codes[1].length - 1]); // 2560
+            run -= 2560;
+        }
+        if (run >= 64) {
+            putCode(codes[1][(run >> 6) - 1]);
+            run &= 63;
+        }
+        putCode(codes[0][run]);
+    }
+
+    /**
+     * Appends a code packed as {@code (bits << 5) | length}.
+     */
+    private void putCode(int code) throws IOException {
+        putBits(code >>> 5, code & 31);
+    }
+
+    private void putBits(int value, int length) throws IOException {
+        bits = (bits << length) | value;
+        bitCount += length;
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            putByte((int) (bits >>> bitCount));
+        }
+    }
+
+    private void putByte(int value) throws IOException {
+        if (!output.hasRemaining()) {
+            output.flip();
+            if (seekable != null) {
+                writeFully(channel, output);
+            } else {
+                if (spool == null) {
+                    spool = FileChannel.open(Files.createTempFile("g4-strip-", ".tmp"), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+                }
+                writeFully(spool, output);
+            }
+            output.clear();
+        }
+        output.put((byte) value);
+        stripBytes++;
+    }
+
+    /**
+     * Ends the strip with EOFB, writes the directory and, on a seekable channel, points the header
+     * at it. Deletes the spooled strip, if any, whether or not that succeeds.
+     * @throws IOException If writing fails, or fewer rows were written than the height.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            finish();
+        } finally {
+            if (spool != null) {
+                spool.close();
+            }
+        }
+    }
+
+    private void finish() throws IOException {
+        if (rowsWritten != height) {
+            throw new IOException("Incomplete image: " + rowsWritten + " of " + height + " rows written.");
+        }
+        putCode(EOL_CODE); // EOFB is two EOLs
+        putCode(EOL_CODE);
+        if (bitCount > 0) {
+            putBits(0, 8 - bitCount); // Zero fill to the byte boundary
+        }
+        if ((stripBytes & 1) != 0) {
+            putByte(0); // The directory has to start on a word boundary
+        }
+
+        long ifdOffset = HEADER_SIZE + stripBytes;
+        if (ifdOffset + IFD_SIZE + 16 > 0xFFFFFFFFL) {
+            throw new IOException("Image too large for a TIFF file: " + stripBytes + " compressed bytes.");
+        }
+        ByteBuffer directory = directory((int) ifdOffset);
+        output.flip();
+        if (seekable != null) {
+            writeFully(channel, output);
+            writeFully(channel, directory);
+            long end = seekable.position();
+            seekable.position(start);
+            writeFully(channel, header((int) ifdOffset));
+            seekable.position(end);
+        } else {
+            writeFully(channel, header((int) ifdOffset));
+            if (spool != null) {
+                for (long position = 0, size = spool.size(); position < size; ) {
+                    position += spool.transferTo(position, size - position, channel);
+                }
+            }
+            writeFully(channel, output);
+            writeFully(channel, directory);
+        }
+    }
+
+    private static ByteBuffer header(int ifdOffset) {
+        return ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                .put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(ifdOffset)
+                .flip();
+    }
+
+    /**
+     * Builds the image file directory, followed by the two resolution values it points to.
+     * Entries are sorted by tag, as TIFF requires.
+     */
+    private ByteBuffer directory(int ifdOffset) {
+        int resolutionOffset = ifdOffset + IFD_SIZE;
+        ByteBuffer directory = ByteBuffer.allocate(IFD_SIZE + 16).order(ByteOrder.LITTLE_ENDIAN);
+        directory.putShort((short) ENTRIES);
+        entry(directory, 256, 4, width);                // ImageWidth
+        entry(directory, 257, 4, height);               // ImageLength
+        entry(directory, 258, 3, 1);                    // BitsPerSample
+        entry(directory, 259, 3, 4);                    // Compression: CCITT T.6
+        entry(directory, 262, 3, 0);                    // PhotometricInterpretation: WhiteIsZero
+        entry(directory, 266, 3, 1);                    // FillOrder: most significant bit first
+        entry(directory, 273, 4, HEADER_SIZE);          // StripOffsets
+        entry(directory, 277, 3, 1);                    // SamplesPerPixel
+        entry(directory, 278, 4, height);               // RowsPerStrip: one strip
+        entry(directory, 279, 4, (int) stripBytes);     // StripByteCounts
+        entry(directory, 282, 5, resolutionOffset);     // XResolution
+        entry(directory, 283, 5, resolutionOffset + 8); // YResolution
+        entry(directory, 293, 4, 0);                    // T6Options
+        entry(directory, 296, 3, 2);                    // ResolutionUnit: inch
+        directory.putInt(0); // No further directories
+        directory.putInt(DPI).putInt(1).putInt(DPI).putInt(1);
+        return directory.flip();
+    }
+
+    private static void entry(ByteBuffer directory, int tag, int type, int value) {
+        directory.putShort((short) tag).putShort((short) type).putInt(1);
+        if (type == 3) {
+            directory.putShort((short) value).putShort((short) 0); // SHORT values are left-justified
+        } else {
+            directory.putInt(value);
+        }
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return The terminating codes, and the make-up codes followed by the extended make-up codes,
+     *         each packed as {@code (bits << 5) | length}.
+     */
+    private static int[][] codes(String[] terminating, String[] makeUp) {
+        String[] allMakeUp = Arrays.copyOf(makeUp, makeUp.length + EXTENDED_MAKE_UP.length);
+        System.arraycopy(EXTENDED_MAKE_UP, 0, allMakeUp, makeUp.length, EXTENDED_MAKE_UP.length);
+        return new int[][] {codes(terminating), codes(allMakeUp)};
+    }
+
+    private static int[] codes(String[] words) {
+        int[] codes = new int[words.length];
+        for (int i = 0; i < words.length; i++) {
+            codes[i] = code(words[i]);
+        }
+        return codes;
+    }
+
+    private static int code(String word) {
+        return Integer.parseInt(word, 2) << 5 | word.length();
+    }
+}
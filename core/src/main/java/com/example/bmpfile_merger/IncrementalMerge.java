@@ -0,0 +1,122 @@
+package com.example.bmpfile_merger;
+
+import java.util.BitSet;
+
+/**
+ * A merge result that remembers its inputs and schedule, so that it can be updated in place
+ * when one of the inputs is replaced instead of being merged again from scratch.
+ * <p>
+ * Rows kept from file1 do not depend on file2, so a new border only rewrites the rows taken
+ * from file2. A new body of the same height keeps taking the same file2 lines down to the
+ * first row whose last bit differs; above it only the rows kept from file1 are rewritten, from
+ * it on every row is. {@link #changedRows()} tells which rows an update rewrote, e.g. to
+ * refresh only the affected part of a preview.
+ * <p>
+ * An update reuses the pixel buffer of the result it was made from, which must not be used
+ * any more afterwards; if the update fails or is cancelled, the buffer is left half-written.
+ */
+public final class IncrementalMerge {
+    private final BmpImage file1Bmp;
+    private final BmpImage file2Bmp;
+    private final MergeSchedule schedule;
+    private final BmpImage merged;
+    private final BitSet changedRows;
+
+    private IncrementalMerge(BmpImage file1Bmp, BmpImage file2Bmp, MergeSchedule schedule, BmpImage merged, BitSet changedRows) {
+        this.file1Bmp = file1Bmp;
+        this.file2Bmp = file2Bmp;
+        this.schedule = schedule;
+        this.merged = merged;
+        this.changedRows = changedRows;
+    }
+
+    /**
+     * Merges file1 with file2 from scratch, see {@link BmpMerger#merge(BmpImage, BmpImage, MergeSchedule, MergeMonitor)}.
+     * @return The result; all of its rows count as changed.
+     */
+    public static IncrementalMerge merge(BmpImage file1Bmp, BmpImage file2Bmp, MergeSchedule schedule, MergeMonitor monitor) {
+        BmpImage merged = BmpMerger.merge(file1Bmp, file2Bmp, schedule, monitor);
+        BitSet changedRows = new BitSet(merged.height);
+        changedRows.set(0, merged.height);
+        return new IncrementalMerge(file1Bmp, file2Bmp, schedule, merged, changedRows);
+    }
+
+    /**
+     * Replaces file2, rewriting only the rows taken from it.
+     * @param newFile2Bmp The new border image, as wide as the current one.
+     * @param monitor Receives progress and is polled for cancellation.
+     * @return The updated result, sharing this result's pixel buffer.
+     * @throws IllegalArgumentException If the width condition is not met.
+     * @throws java.util.concurrent.CancellationException If the monitor cancelled the merge.
+     */
+    public IncrementalMerge withBorder(BmpImage newFile2Bmp, MergeMonitor monitor) {
+        BmpMerger.checkWidths(file1Bmp, newFile2Bmp);
+        BmpMerger.checkBorderHeight(newFile2Bmp, schedule);
+
+        BmpMerger.mergeInto(file1Bmp, newFile2Bmp, schedule, merged, false, true, merged.height, monitor);
+        return new IncrementalMerge(file1Bmp, newFile2Bmp, schedule, merged, schedule.borderRowSet());
+    }
+
+    /**
+     * Replaces file1 with one of the same height, rewriting the rows kept from it and every row
+     * from the first one whose last bit differs.
+     * @param newFile1Bmp The new body image.
+     * @param newSchedule The schedule scanned from the new body image.
+     * @param monitor Receives progress and is polled for cancellation.
+     * @return The updated result, sharing this result's pixel buffer.
+     * @throws IllegalArgumentException If the width condition is not met or the heights differ.
+     * @throws java.util.concurrent.CancellationException If the monitor cancelled the merge.
+     */
+    public IncrementalMerge withBody(BmpImage newFile1Bmp, MergeSchedule newSchedule, MergeMonitor monitor) {
+        BmpMerger.checkWidths(newFile1Bmp, file2Bmp);
+        BmpMerger.checkBorderHeight(file2Bmp, newSchedule);
+        int firstDifference = schedule.firstDifference(newSchedule);
+
+        BmpMerger.mergeInto(newFile1Bmp, file2Bmp, newSchedule, merged, true, false, firstDifference, monitor);
+
+        BitSet changedRows = newSchedule.borderRowSet();
+        changedRows.flip(0, firstDifference); // Rows kept from file1 above the first difference
+        changedRows.set(firstDifference, merged.height);
+        return new IncrementalMerge(newFile1Bmp, file2Bmp, newSchedule, merged, changedRows);
+    }
+
+    /**
+     * @return True if {@link #withBody} can replace file1 with the given image.
+     */
+    public boolean canReplaceBody(BmpImage newFile1Bmp) {
+        return newFile1Bmp.width == file1Bmp.width && newFile1Bmp.height == file1Bmp.height;
+    }
+
+    /**
+     * @return True if {@link #withBorder} can replace file2 with the given image.
+     */
+    public boolean canReplaceBorder(BmpImage newFile2Bmp) {
+        return newFile2Bmp.width == file2Bmp.width;
+    }
+
+    public BmpImage file1() {
+        return file1Bmp;
+    }
+
+    public BmpImage file2() {
+        return file2Bmp;
+    }
+
+    public MergeSchedule schedule() {
+        return schedule;
+    }
+
+    /**
+     * @return The merged image.
+     */
+    public BmpImage image() {
+        return merged;
+    }
+
+    /**
+     * @return The rows (top-down) rewritten by the merge or update that produced this result.
+     */
+    public BitSet changedRows() {
+        return changedRows;
+    }
+}
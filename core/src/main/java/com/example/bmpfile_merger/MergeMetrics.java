@@ -0,0 +1,249 @@
+package com.example.bmpfile_merger;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process metrics for the stages of merging: per-stage duration histograms, byte and
+ * allocation totals, and how many output rows came from file1 and from file2.
+ * <p>
+ * Every stage measured with {@link #start} is also emitted as a {@link MergeStageEvent}
+ * to JFR. The allocation of a stage is that of the thread that started it plus that of the
+ * pool threads running parallel stripes on its behalf. Both JFR and the allocation counter
+ * are optional: a runtime linked without {@code jdk.jfr} or {@code jdk.management} just
+ * skips the events or reports zero allocation. A registry is safe to use from many threads
+ * at once; {@link #summary()} renders it as a table, e.g. at the end of a batch run.
+ */
+public class MergeMetrics {
+
+    /**
+     * The measured stages.
+     */
+    public enum Stage {
+        READ("read"),
+        SCAN("last-bit scan"),
+        MERGE("row merge"),
+        STREAMING_MERGE("streaming merge"),
+        MERGE_WRITE("merge + write"),
+        PREVIEW("preview build"),
+        WRITE("write");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /**
+     * Totals and latency distribution of one stage.
+     */
+    public static final class StageStats {
+        private final LatencyHistogram nanos = new LatencyHistogram();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong allocated = new AtomicLong();
+
+        StageStats() {
+        }
+
+        /** @return Durations of the stage in nanoseconds. */
+        public LatencyHistogram nanos() {
+            return nanos;
+        }
+
+        /** @return Bytes processed by the stage in total. */
+        public long bytes() {
+            return bytes.get();
+        }
+
+        /**
+         * @return Bytes allocated by the thread running the stage and by the pool threads running
+         *         its parallel stripes, where the JVM can measure it.
+         */
+        public long allocated() {
+            return allocated.get();
+        }
+    }
+
+    /**
+     * Measures one run of a stage; closing it records the duration.
+     */
+    public final class StageTimer implements AutoCloseable {
+        private final Stage stage;
+        private final String file;
+        private final long start = System.nanoTime();
+        private final long allocatedAtStart = allocatedBytes();
+        private final MergeStageEvent event = JFR ? new MergeStageEvent() : null;
+        private final AtomicLong forkedAllocated = new AtomicLong(); // By pool threads working for this stage
+        private final StageTimer enclosing = RUNNING.get();
+        private long bytes;
+
+        private StageTimer(Stage stage, String file) {
+            this.stage = stage;
+            this.file = file;
+            RUNNING.set(this);
+            if (event != null) {
+                event.begin();
+            }
+        }
+
+        /**
+         * Sets the number of bytes the stage processed.
+         * @return This timer.
+         */
+        public StageTimer bytes(long bytes) {
+            this.bytes = bytes;
+            return this;
+        }
+
+        /**
+         * Adds the allocation of another thread that worked for this stage.
+         */
+        void addAllocated(long bytes) {
+            forkedAllocated.addAndGet(Math.max(0, bytes));
+        }
+
+        @Override
+        public void close() {
+            RUNNING.set(enclosing);
+            long allocated = Math.max(0, allocatedBytes() - allocatedAtStart) + forkedAllocated.get();
+            StageStats stats = stages.get(stage);
+            stats.nanos.record(System.nanoTime() - start);
+            stats.bytes.addAndGet(bytes);
+            stats.allocated.addAndGet(allocated);
+
+            if (event == null) {
+                return;
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = stage.toString();
+                event.file = file;
+                event.bytes = bytes;
+                event.allocated = allocated;
+                event.commit();
+            }
+        }
+    }
+
+    private static final boolean JFR = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+    private static final boolean ALLOCATION = ModuleLayer.boot().findModule("jdk.management").isPresent();
+    private static final ThreadLocal<StageTimer> RUNNING = new ThreadLocal<>(); // Innermost open timer of each thread
+
+    private final Map<Stage, StageStats> stages = new EnumMap<>(Stage.class);
+    private final AtomicLong file1Rows = new AtomicLong();
+    private final AtomicLong file2Rows = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public MergeMetrics() {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new StageStats());
+        }
+    }
+
+    /**
+     * Holds the thread MXBean; only loaded when {@code jdk.management} is in the runtime.
+     */
+    private static final class Allocation {
+        static final com.sun.management.ThreadMXBean THREADS = threadMXBean();
+
+        private static com.sun.management.ThreadMXBean threadMXBean() {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                    && threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return The innermost stage timer open on the calling thread, or null.
+     */
+    static StageTimer runningTimer() {
+        return RUNNING.get();
+    }
+
+    /**
+     * @return The bytes the calling thread has allocated so far, or 0 if that cannot be measured.
+     */
+    static long allocatedBytes() {
+        if (!ALLOCATION || Allocation.THREADS == null) {
+            return 0;
+        }
+        return Allocation.THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Starts measuring a stage, to be closed when the stage is done:
+     * {@code try (var timer = metrics.start(Stage.WRITE, name)) { ...; timer.bytes(n); }}
+     * @param stage The stage.
+     * @param file The file being processed, for the JFR event.
+     * @return The running timer.
+     */
+    public StageTimer start(Stage stage, String file) {
+        return new StageTimer(stage, file);
+    }
+
+    /**
+     * Counts the output rows of a merge by source.
+     * @param fromFile1 Rows kept from file1.
+     * @param fromFile2 Rows taken from file2.
+     */
+    public void addRows(long fromFile1, long fromFile2) {
+        file1Rows.addAndGet(fromFile1);
+        file2Rows.addAndGet(fromFile2);
+    }
+
+    /** Counts a merge that failed. */
+    public void addFailure() {
+        failures.incrementAndGet();
+    }
+
+    public StageStats stage(Stage stage) {
+        return stages.get(stage);
+    }
+
+    public long file1Rows() {
+        return file1Rows.get();
+    }
+
+    public long file2Rows() {
+        return file2Rows.get();
+    }
+
+    public long failures() {
+        return failures.get();
+    }
+
+    /**
+     * @return A table of all stages that ran, with counts, throughput and latency percentiles.
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format(Locale.ROOT, "%-16s %8s %10s %9s %9s %9s %9s %9s %10s%n",
+                "stage", "count", "MB", "MB/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "alloc MB"));
+        for (Stage stage : Stage.values()) {
+            StageStats stats = stages.get(stage);
+            LatencyHistogram nanos = stats.nanos;
+            if (nanos.count() == 0) {
+                continue;
+            }
+            double seconds = nanos.sum() / 1e9;
+            summary.append(String.format(Locale.ROOT, "%-16s %8d %10.1f %9.1f %9.2f %9.2f %9.2f %9.2f %10.1f%n",
+                    stage, nanos.count(), stats.bytes() / 1e6, seconds > 0 ? stats.bytes() / 1e6 / seconds : 0.0,
+                    nanos.percentile(50) / 1e6, nanos.percentile(90) / 1e6, nanos.percentile(99) / 1e6,
+                    nanos.max() / 1e6, stats.allocated() / 1e6));
+        }
+        summary.append(String.format(Locale.ROOT, "rows: %d from file1, %d from file2; failed merges: %d%n",
+                file1Rows(), file2Rows(), failures()));
+        return summary.toString();
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.bmpfile_merger;
+
+/**
+ * Receives progress from a running merge and lets its caller cancel it.
+ * <p>
+ * Parallel merges call {@link #rowsMerged} from several threads at once, so implementations
+ * must be thread-safe.
+ */
+public interface MergeMonitor {
+
+    /** A monitor that ignores progress and never cancels. */
+    MergeMonitor NONE = new MergeMonitor() {
+        @Override
+        public void rowsMerged(int rows) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    /**
+     * Called each time a batch of rows has been merged.
+     * @param rows The number of rows merged since the last call from the same thread.
+     */
+    void rowsMerged(int rows);
+
+    /**
+     * Polled between batches of rows; once it returns true the merge stops with a
+     * {@link java.util.concurrent.CancellationException}.
+     * @return True if the merge should stop.
+     */
+    boolean isCancelled();
+}
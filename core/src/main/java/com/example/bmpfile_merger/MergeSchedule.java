@@ -0,0 +1,161 @@
+package com.example.bmpfile_merger;
+
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Which rows of a merge come from file2, and which file2 line each of them uses.
+ * <p>
+ * A row of file1 is replaced by file2 when its last pixel is white, and the file2 line it gets
+ * is the number of such rows above it (modulo the height of file2). The schedule stores the
+ * last-bit column of file1 (white as given by its palette) as a bit set, plus a prefix count
+ * of border rows per stripe of {@link #STRIPE_ROWS} rows, so the file2 line of any row is
+ * known without walking the rows above it, and stripes can be merged independently of each
+ * other.
+ */
+public final class MergeSchedule {
+    /** Rows per stripe. A multiple of 64, so that no two stripes share a word of the bit set. */
+    public static final int STRIPE_ROWS = 4096;
+
+    private final int height;
+    private final long[] borderRows; // Bit y is set if row y (top-down) takes a line from file2
+    private final int[] stripeStart; // Border rows above each stripe; the last entry is the total
+
+    private MergeSchedule(int height, long[] borderRows, int[] stripeStart) {
+        this.height = height;
+        this.borderRows = borderRows;
+        this.stripeStart = stripeStart;
+    }
+
+    /**
+     * Scans the last-bit column of file1, one stripe per task in parallel.
+     * @param file1Bmp The body image.
+     * @return The schedule for merging file1 with any border image.
+     */
+    public static MergeSchedule scan(BmpImage file1Bmp) {
+        int height = file1Bmp.height;
+        int stripes = stripeCount(height);
+        long[] borderRows = new long[(height + 63) / 64];
+        int[] stripeStart = new int[stripes + 1];
+
+        // The last bit of a file1 row is at (file1Bmp.width - 1)
+        int lastBitX = file1Bmp.width - 1;
+
+        // Phase one: every stripe fills its own words of the bit set and counts its border rows,
+        // i.e. the rows whose last bit is WHITE
+        forEachStripe(stripes, stripe -> {
+            int from = stripe * STRIPE_ROWS;
+            stripeStart[stripe + 1] = RowKernels.INSTANCE.extractColumn(file1Bmp, lastBitX, borderRows,
+                    from, Math.min(height, from + STRIPE_ROWS));
+        });
+
+        // Prefix sum: the first file2 line used by each stripe
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            stripeStart[stripe + 1] += stripeStart[stripe];
+        }
+
+        return new MergeSchedule(height, borderRows, stripeStart);
+    }
+
+    /**
+     * Runs an action for every stripe index, in parallel when there is more than one stripe.
+     * Allocation on the pool threads counts towards the stage timer open on the calling thread.
+     */
+    static void forEachStripe(int stripes, IntConsumer action) {
+        if (stripes <= 1) {
+            IntStream.range(0, stripes).forEach(action);
+            return;
+        }
+        Thread caller = Thread.currentThread();
+        MergeMetrics.StageTimer timer = MergeMetrics.runningTimer();
+        IntStream.range(0, stripes).parallel().forEach(stripe -> {
+            if (timer == null || Thread.currentThread() == caller) {
+                action.accept(stripe); // The caller's own allocation is measured by the timer itself
+                return;
+            }
+            long allocatedAtStart = MergeMetrics.allocatedBytes();
+            try {
+                action.accept(stripe);
+            } finally {
+                timer.addAllocated(MergeMetrics.allocatedBytes() - allocatedAtStart);
+            }
+        });
+    }
+
+    static int stripeCount(int height) {
+        return (height + STRIPE_ROWS - 1) / STRIPE_ROWS;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int stripeCount() {
+        return stripeStart.length - 1;
+    }
+
+    /**
+     * @param y The row in top-down order.
+     * @return True if the row takes a line from file2, false if it is kept from file1.
+     */
+    public boolean isBorderRow(int y) {
+        return (borderRows[y >>> 6] & (1L << y)) != 0;
+    }
+
+    /**
+     * @return The number of rows taken from file2.
+     */
+    public int borderRowCount() {
+        return stripeStart[stripeStart.length - 1];
+    }
+
+    /**
+     * @param stripe The stripe index.
+     * @return The number of rows above the stripe that are taken from file2.
+     */
+    public int borderRowsBeforeStripe(int stripe) {
+        return stripeStart[stripe];
+    }
+
+    /**
+     * @param y The row in top-down order.
+     * @return The number of rows above y that are taken from file2, i.e. the (unwrapped)
+     *         file2 line y uses if it is a border row.
+     */
+    public int borderRowsBefore(int y) {
+        int stripe = y / STRIPE_ROWS;
+        int count = stripeStart[stripe];
+        int word = stripe * (STRIPE_ROWS / 64);
+        for (int end = y >>> 6; word < end; word++) {
+            count += Long.bitCount(borderRows[word]);
+        }
+        return count + Long.bitCount(borderRows[word] & ((1L << y) - 1));
+    }
+
+    /**
+     * @return The rows taken from file2, as a new bit set indexed by top-down row.
+     */
+    public BitSet borderRowSet() {
+        return BitSet.valueOf(borderRows);
+    }
+
+    /**
+     * Finds the first row that comes from a different file in the other schedule. Above that row,
+     * both schedules take the same file2 lines.
+     * @param other The schedule of another file1 of the same height.
+     * @return The first row whose last bit differs, or the height if there is none.
+     */
+    public int firstDifference(MergeSchedule other) {
+        if (other.height != height) {
+            throw new IllegalArgumentException("Schedules of different heights: " + height + " and " + other.height);
+        }
+        for (int word = 0; word < borderRows.length; word++) {
+            long difference = borderRows[word] ^ other.borderRows[word];
+            if (difference != 0) {
+                return Math.min(height, word * 64 + Long.numberOfTrailingZeros(difference));
+            }
+        }
+        return height;
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.bmpfile_merger;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for one stage of a merge (read, scan, merge, preview, write).
+ * Recorded with {@code -XX:StartFlightRecording}; shows up under "BMP Merger".
+ */
+@Name("com.example.bmpfile_merger.MergeStage")
+@Label("Merge Stage")
+@Category("BMP Merger")
+@Description("One stage of merging a body image with a border image")
+@StackTrace(false)
+class MergeStageEvent extends jdk.jfr.Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("File")
+    String file;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the thread running the stage")
+    @DataAmount
+    long allocated;
+}
@@ -0,0 +1,121 @@
+package com.example.bmpfile_merger;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * The file formats a merged image can be written in. All of them take the packed rows straight
+ * from the merge through a {@link RowEncoder}; they differ in row order, bit sense and size.
+ */
+public enum OutputFormat {
+    /** Uncompressed 1bpp BMP, rows padded to 4 bytes, bottom row first. */
+    BMP("bmp", "image/bmp", true, false),
+    /** Binary PBM (P4): a short text header and unpadded rows, top row first, 1 is black. */
+    PBM("pbm", "image/x-portable-bitmap", false, true),
+    /** Single-strip TIFF compressed with CCITT Group 4, top row first, 1 is black. */
+    TIFF_G4("tif", "image/tiff", false, true);
+
+    private final String extension;
+    private final String mediaType;
+    private final boolean bottomUp;
+    private final boolean blackIsOne;
+
+    OutputFormat(String extension, String mediaType, boolean bottomUp, boolean blackIsOne) {
+        this.extension = extension;
+        this.mediaType = mediaType;
+        this.bottomUp = bottomUp;
+        this.blackIsOne = blackIsOne;
+    }
+
+    /**
+     * Looks a format up by name or file extension: bmp, pbm, tif/tiff (case-insensitive).
+     * @throws IllegalArgumentException If no format has that name.
+     */
+    public static OutputFormat of(String name) {
+        return switch (name.toLowerCase(Locale.ROOT)) {
+            case "bmp" -> BMP;
+            case "pbm" -> PBM;
+            case "tif", "tiff", "tiff_g4", "g4" -> TIFF_G4;
+            default -> throw new IllegalArgumentException("Unknown output format: " + name + " (use bmp, pbm or tiff).");
+        };
+    }
+
+    /**
+     * @return The format matching the extension of a file name, or BMP if it has no known one.
+     */
+    public static OutputFormat forFileName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        try {
+            return dot >= 0 ? of(fileName.substring(dot + 1)) : BMP;
+        } catch (IllegalArgumentException e) {
+            return BMP;
+        }
+    }
+
+    /** @return The file extension, without the dot. */
+    public String extension() {
+        return extension;
+    }
+
+    /** @return The media type, for HTTP responses. */
+    public String mediaType() {
+        return mediaType;
+    }
+
+    /** @return True if the bottom row is stored first, as in BMP. */
+    public boolean bottomUp() {
+        return bottomUp;
+    }
+
+    /** @return True if a set bit is a black pixel; in BMP output it is a white one. */
+    public boolean blackIsOne() {
+        return blackIsOne;
+    }
+
+    /**
+     * Gives a file name this format's extension, replacing a {@code .bmp} one. BMP keeps the name.
+     * @param fileName A file name, e.g. that of the body image.
+     * @return The name to write this format under.
+     */
+    public String fileName(String fileName) {
+        if (this == BMP) {
+            return fileName;
+        }
+        boolean isBmp = fileName.toLowerCase(Locale.ROOT).endsWith(".bmp");
+        return (isBmp ? fileName.substring(0, fileName.length() - 4) : fileName) + "." + extension;
+    }
+
+    /**
+     * @return The exact size of the output for an image of this size, or -1 if it depends on
+     *         the pixels (compressed formats).
+     */
+    public long size(int width, int height) {
+        return switch (this) {
+            case BMP -> BmpImage.PIXEL_DATA_OFFSET + (long) BmpImage.paddedRowSize(width) * height;
+            case PBM -> pbmHeader(width, height).length + (long) ((width + 7) / 8) * height;
+            case TIFF_G4 -> -1;
+        };
+    }
+
+    /**
+     * Starts encoding an image. The channel must be positioned at the start of the file.
+     * @param channel The channel to write to; not closed by the encoder.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @return The encoder, expecting {@code height} rows in this format's order.
+     * @throws IOException If writing the start of the file fails.
+     */
+    public RowEncoder open(WritableByteChannel channel, int width, int height) throws IOException {
+        return switch (this) {
+            case BMP -> new PipelinedBmpWriter(channel, width, height, false);
+            case PBM -> new PipelinedBmpWriter(channel, pbmHeader(width, height), (width + 7) / 8, (width + 7) / 8, height);
+            case TIFF_G4 -> new G4TiffWriter(channel, width, height);
+        };
+    }
+
+    private static byte[] pbmHeader(int width, int height) {
+        return ("P4\n" + width + " " + height + "\n").getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.bmpfile_merger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Writes a 1bpp BMP file row by row, in file order (bottom row first), overlapping the
+ * production of rows with the disk writes. {@link OutputFormat#PBM} uses it too, with its own
+ * header and unpadded rows.
+ * <p>
+ * Rows go into a small ring of direct buffers. A full buffer is handed to a writer thread that
+ * flushes it to the channel while the caller fills the next one, so at most
+ * {@link #BUFFERS} buffers are in memory however large the image is. The header and palette
+ * go out together with the first buffer in one gathering write. Direct buffers are pooled
+ * across writers, and since they are direct the channel writes them without the temporary copy
+ * it makes of heap buffers.
+ * <p>
+ * Write a row by filling the bytes of its pixels at the position of {@link #beginRow()} and
+ * calling {@link #endRow()}, which zeroes the padding. The merge fills a whole buffer's worth of
+ * rows at once instead, in parallel, through {@link #rowsFree()} and {@link #endRows(int)}.
+ */
+public final class PipelinedBmpWriter implements RowEncoder {
+
+    /** Buffers per writer: one being filled, the others queued or being written. */
+    static final int BUFFERS = 4;
+
+    /** Size of a pooled buffer; rows wider than this get a buffer of their own. */
+    static final int BUFFER_BYTES = 1 << 20;
+
+    private static final int MAX_POOLED = 4 * BUFFERS;
+    private static final ConcurrentLinkedQueue<ByteBuffer> POOL = new ConcurrentLinkedQueue<>();
+    private static final ByteBuffer END = ByteBuffer.allocate(0); // Tells the writer thread to exit
+
+    private final WritableByteChannel channel;
+    private final int height;
+    private final int rowBytes;
+    private final int paddedRowSize;
+    private final ByteBuffer header;
+
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(BUFFERS);
+    private final BlockingQueue<ByteBuffer> filled = new ArrayBlockingQueue<>(BUFFERS + 1);
+    private final List<ByteBuffer> buffers = new ArrayList<>(BUFFERS);
+    private final Thread writerThread;
+    private volatile Throwable error; // The first failure of the writer thread
+
+    private ByteBuffer current;
+    private int rowsWritten;
+    private boolean closed;
+
+    /**
+     * Starts a writer. The channel must be positioned at the start of the file and is not closed
+     * by this writer.
+     * @param channel The channel to write to.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param inverted True for a white-first palette.
+     */
+    public PipelinedBmpWriter(WritableByteChannel channel, int width, int height, boolean inverted) {
+        this(channel, BmpImage.createHeader(width, height, inverted), (width + 7) / 8, BmpImage.paddedRowSize(width), height);
+    }
+
+    /**
+     * Starts a writer for any format that is a header followed by fixed-size rows.
+     * @param channel The channel to write to.
+     * @param header The bytes before the first row.
+     * @param rowBytes The pixel bytes of a row.
+     * @param paddedRowSize The size of a row in the file, at least {@code rowBytes}.
+     * @param height The number of rows.
+     */
+    PipelinedBmpWriter(WritableByteChannel channel, byte[] header, int rowBytes, int paddedRowSize, int height) {
+        this.channel = channel;
+        this.height = height;
+        this.rowBytes = rowBytes;
+        this.paddedRowSize = paddedRowSize;
+        this.header = ByteBuffer.wrap(header);
+
+        for (int i = 0; i < BUFFERS; i++) {
+            ByteBuffer buffer = paddedRowSize <= BUFFER_BYTES ? POOL.poll() : null;
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_BYTES, paddedRowSize));
+            }
+            buffers.add(buffer);
+            free.add(buffer);
+        }
+        writerThread = new Thread(this::flushBuffers, "bmp-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public ByteBuffer beginRow() throws IOException {
+        if (rowsWritten == height) {
+            throw new IllegalStateException("All " + height + " rows have been written.");
+        }
+        if (current == null) {
+            checkError(); // Fails fast instead of filling buffers that are only recycled
+            try {
+                current = free.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a write buffer.");
+            }
+            checkError();
+            current.clear().limit(current.capacity() / paddedRowSize * paddedRowSize);
+        }
+        return current;
+    }
+
+    /**
+     * Completes the row started with {@link #beginRow()}, zeroing its padding bytes.
+     * @throws IOException If an earlier write failed.
+     */
+    @Override
+    public void endRow() throws IOException {
+        endRows(1);
+    }
+
+    /**
+     * @return The size of a row in the buffers, padding included.
+     */
+    int paddedRowSize() {
+        return paddedRowSize;
+    }
+
+    /**
+     * Tells how many rows can be filled at once from the position of {@link #beginRow()}: the
+     * rest of the buffer, or of the image. Row i of such a run starts {@code i * paddedRowSize()}
+     * bytes after the position, and the rows may be filled in any order, e.g. by several threads.
+     * @return The number of rows, at least 1. {@link #beginRow()} must have been called.
+     */
+    int rowsFree() {
+        return Math.min(current.remaining() / paddedRowSize, height - rowsWritten);
+    }
+
+    /**
+     * Completes a run of rows filled from the position of {@link #beginRow()}, zeroing their
+     * padding bytes.
+     * @param rows The number of rows, at most {@link #rowsFree()}.
+     * @throws IOException If an earlier write failed.
+     */
+    void endRows(int rows) throws IOException {
+        int position = current.position();
+        for (int row = 0; row < rows; row++, position += paddedRowSize) {
+            for (int i = rowBytes; i < paddedRowSize; i++) {
+                current.put(position + i, (byte) 0);
+            }
+        }
+        current.position(position);
+        rowsWritten += rows;
+        if (!current.hasRemaining() || rowsWritten == height) {
+            submit();
+        }
+    }
+
+    /**
+     * Writes already packed rows: the raw pixel data of one or more whole rows, padding included.
+     * @throws IOException If an earlier write failed.
+     */
+    public void writeRows(ByteBuffer pixels) throws IOException {
+        if (pixels.remaining() % paddedRowSize != 0 || pixels.remaining() / paddedRowSize > height - rowsWritten) {
+            throw new IllegalArgumentException("Not a whole number of the remaining rows: " + pixels.remaining() + " bytes.");
+        }
+        while (pixels.hasRemaining()) {
+            ByteBuffer buffer = beginRow();
+            int bytes = Math.min(buffer.remaining(), pixels.remaining()); // Both are whole rows
+            buffer.put(pixels.slice(pixels.position(), bytes));
+            pixels.position(pixels.position() + bytes);
+            rowsWritten += bytes / paddedRowSize;
+            if (!buffer.hasRemaining() || rowsWritten == height) {
+                submit();
+            }
+        }
+    }
+
+    private void submit() throws IOException {
+        current.flip();
+        ByteBuffer buffer = current;
+        current = null;
+        filled.add(buffer); // Never full: at most BUFFERS buffers and END are ever queued
+        checkError();
+    }
+
+    private void checkError() throws IOException {
+        Throwable failure = error;
+        if (failure instanceof IOException) {
+            throw new IOException(failure.getMessage(), failure);
+        } else if (failure != null) {
+            throw new IOException("BMP writer failed: " + failure, failure);
+        }
+    }
+
+    /**
+     * Runs on the writer thread: writes filled buffers in order until told to stop. After a
+     * failure of any kind, e.g. a RuntimeException from the channel, the remaining buffers are
+     * only recycled, so the caller never waits for a buffer in vain, and the error is reported
+     * to the caller.
+     */
+    private void flushBuffers() {
+        boolean first = true;
+        try {
+            for (ByteBuffer buffer = filled.take(); buffer != END; buffer = filled.take()) {
+                if (error == null) {
+                    try {
+                        if (first) {
+                            writeFully(header, buffer);
+                            first = false;
+                        } else {
+                            writeFully(buffer);
+                        }
+                    } catch (Throwable e) {
+                        error = e;
+                    }
+                }
+                free.add(buffer);
+            }
+        } catch (InterruptedException e) {
+            error = new InterruptedIOException("BMP writer interrupted.");
+        }
+    }
+
+    private void writeFully(ByteBuffer... sources) throws IOException {
+        if (channel instanceof GatheringByteChannel gathering) {
+            while (sources[0].hasRemaining() || sources[sources.length - 1].hasRemaining()) {
+                gathering.write(sources);
+            }
+            return;
+        }
+        for (ByteBuffer source : sources) {
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+    }
+
+    /**
+     * Waits for all rows to be written and releases the buffers. An image without rows gets
+     * only its header.
+     * @throws IOException If a write failed, or fewer rows were written than the height.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (height == 0) {
+            current = free.remove();
+            current.clear().limit(0);
+            submit();
+        } else if (current != null) {
+            submit();
+        }
+        filled.add(END);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the BMP writer.");
+        }
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.capacity() == BUFFER_BYTES && POOL.size() < MAX_POOLED) {
+                POOL.add(buffer);
+            }
+        }
+        checkError();
+        if (rowsWritten != height) {
+            throw new IOException("Incomplete image: " + rowsWritten + " of " + height + " rows written.");
+        }
+    }
+}
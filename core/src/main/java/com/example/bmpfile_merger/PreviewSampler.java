@@ -0,0 +1,116 @@
+package com.example.bmpfile_merger;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Renders a region of a 1bpp image into an 8-bit gray raster of a given size.
+ * <p>
+ * Each output pixel is the box average of the source pixels it covers (0 = all black,
+ * 255 = all white). White pixels are counted a byte at a time with {@link Integer#bitCount},
+ * so the cost is proportional to the packed source bytes, not to the number of pixels,
+ * and the size of the result only depends on the requested output size.
+ */
+public final class PreviewSampler {
+
+    private PreviewSampler() {
+    }
+
+    /**
+     * Renders a region of the image.
+     * @param image The image to render.
+     * @param srcX The left edge of the region, in image pixels.
+     * @param srcY The top edge of the region, in image pixels (top-down).
+     * @param srcWidth The width of the region.
+     * @param srcHeight The height of the region.
+     * @param outWidth The width of the raster.
+     * @param outHeight The height of the raster.
+     * @return outWidth * outHeight gray levels, row by row from the top.
+     */
+    public static byte[] render(BmpImage image, int srcX, int srcY, int srcWidth, int srcHeight, int outWidth, int outHeight) {
+        byte[] gray = new byte[outWidth * outHeight];
+        renderRows(image, srcX, srcY, srcWidth, srcHeight, outWidth, outHeight, gray, 0, outHeight);
+        return gray;
+    }
+
+    /**
+     * Renders only the raster rows [fromOutRow, toOutRow) of a region into an existing raster.
+     * The parameters are the same as for {@link #render}.
+     */
+    public static void renderRows(BmpImage image, int srcX, int srcY, int srcWidth, int srcHeight,
+                                  int outWidth, int outHeight, byte[] gray, int fromOutRow, int toOutRow) {
+        // Source column range [x0[ox], x0[ox + 1]) of every output column; at least 1 pixel when magnifying
+        int[] x0 = new int[outWidth + 1];
+        for (int ox = 0; ox <= outWidth; ox++) {
+            x0[ox] = srcX + (int) ((long) ox * srcWidth / outWidth);
+        }
+        int[] white = new int[outWidth];
+        byte[] row = new byte[image.paddedRowSize];
+
+        for (int oy = fromOutRow; oy < toOutRow; oy++) {
+            int y0 = srcY + (int) ((long) oy * srcHeight / outHeight);
+            int y1 = Math.max(y0 + 1, srcY + (int) ((long) (oy + 1) * srcHeight / outHeight));
+
+            Arrays.fill(white, 0);
+            for (int y = y0; y < y1; y++) {
+                image.pixelData.get(image.rowOffset(y), row, 0, row.length);
+                for (int ox = 0; ox < outWidth; ox++) {
+                    white[ox] += countWhite(row, x0[ox], Math.max(x0[ox] + 1, x0[ox + 1]));
+                }
+            }
+
+            int outOffset = oy * outWidth;
+            for (int ox = 0; ox < outWidth; ox++) {
+                int area = Math.max(1, x0[ox + 1] - x0[ox]) * (y1 - y0);
+                int whitePixels = image.inverted ? area - white[ox] : white[ox]; // Set bits are black in a white-first palette
+                gray[outOffset + ox] = (byte) (whitePixels * 255 / area);
+            }
+        }
+    }
+
+    /**
+     * Renders again only the raster rows that cover at least one changed source row.
+     * The other parameters are the same as for {@link #render}.
+     * @param gray The raster of an earlier rendering of the same region.
+     * @param changedRows The changed rows of the image, top-down.
+     * @return The raster rows that were rendered again.
+     */
+    public static BitSet renderChangedRows(BmpImage image, int srcX, int srcY, int srcWidth, int srcHeight,
+                                           int outWidth, int outHeight, byte[] gray, BitSet changedRows) {
+        BitSet changedOutRows = new BitSet(outHeight);
+        for (int oy = 0; oy < outHeight; oy++) {
+            int y0 = srcY + (int) ((long) oy * srcHeight / outHeight);
+            int y1 = Math.max(y0 + 1, srcY + (int) ((long) (oy + 1) * srcHeight / outHeight));
+            int changed = changedRows.nextSetBit(y0);
+            if (changed >= 0 && changed < y1) {
+                changedOutRows.set(oy);
+            }
+        }
+        // Contiguous runs share the per-call setup of renderRows
+        for (int from = changedOutRows.nextSetBit(0); from >= 0; from = changedOutRows.nextSetBit(from)) {
+            int to = changedOutRows.nextClearBit(from);
+            renderRows(image, srcX, srcY, srcWidth, srcHeight, outWidth, outHeight, gray, from, to);
+            from = to;
+        }
+        return changedOutRows;
+    }
+
+    /**
+     * Counts the white pixels in columns [from, to) of a packed row.
+     */
+    static int countWhite(byte[] row, int from, int to) {
+        int firstByte = from >> 3;
+        int lastByte = (to - 1) >> 3;
+        int firstMask = 0xFF >>> (from & 7); // Bits at and right of column 'from'
+        int lastMask = (0xFF << (7 - ((to - 1) & 7))) & 0xFF; // Bits at and left of column 'to - 1'
+
+        if (firstByte == lastByte) {
+            return Integer.bitCount(row[firstByte] & firstMask & lastMask);
+        }
+        int count = Integer.bitCount(row[firstByte] & firstMask);
+        for (int i = firstByte + 1; i < lastByte; i++) {
+            count += Integer.bitCount(row[i] & 0xFF);
+        }
+        return count + Integer.bitCount(row[lastByte] & lastMask);
+    }
+}
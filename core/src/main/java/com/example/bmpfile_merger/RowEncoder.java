@@ -0,0 +1,29 @@
+package com.example.bmpfile_merger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes a 1bpp image that is handed over one packed row at a time, in the row order and bit
+ * sense of its {@link OutputFormat}. Rows are filled in place, so no merged image has to exist.
+ * <p>
+ * Write a row by filling its {@code (width + 7) / 8} pixel bytes, most significant bit first,
+ * at the position of {@link #beginRow()}, then calling {@link #endRow()}. Bits past the last
+ * column must be zero. Closing the encoder finishes the output but does not close the channel.
+ */
+public interface RowEncoder extends Closeable {
+
+    /**
+     * @return The buffer to put the pixel bytes of the next row into, starting at its position.
+     *         The position must be left unchanged.
+     * @throws IOException If an earlier write failed.
+     */
+    ByteBuffer beginRow() throws IOException;
+
+    /**
+     * Completes the row started with {@link #beginRow()}.
+     * @throws IOException If writing fails.
+     */
+    void endRow() throws IOException;
+}
@@ -0,0 +1,58 @@
+package com.example.bmpfile_merger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The inner loops of a merge over packed 1bpp rows.
+ * <p>
+ * {@link #INSTANCE} is chosen once at startup: the SIMD kernels of {@link VectorRowKernels} if
+ * the {@code jdk.incubator.vector} module is present (run with
+ * {@code --add-modules jdk.incubator.vector}), otherwise the plain loops of
+ * {@link ScalarRowKernels}. Both produce identical results. Setting the system property
+ * {@code bmpmerger.kernels=scalar} forces the scalar kernels.
+ */
+interface RowKernels {
+
+    /** The kernels used by the merge. */
+    RowKernels INSTANCE = select();
+
+    /**
+     * Copies the pixel bytes of one row, optionally inverting them, and clears the bits past the
+     * last column with lastByteMask. The padding bytes of the destination row are left untouched.
+     * @param invert True if the source has a white-first palette and has to be flipped to black-first.
+     */
+    void copyRow(ByteBuffer source, int sourceOffset, byte[] target, int targetOffset, int rowBytes,
+                 byte lastByteMask, boolean invert);
+
+    /**
+     * Copies one row into a buffer, as {@link #copyRow(ByteBuffer, int, byte[], int, int, byte, boolean)} does into an array.
+     */
+    void copyRow(ByteBuffer source, int sourceOffset, ByteBuffer target, int targetOffset, int rowBytes,
+                 byte lastByteMask, boolean invert);
+
+    /**
+     * Extracts one bit column of the rows [from, to) into a bit set, bit y set for a white pixel.
+     * @param image The image, whose palette decides what white is.
+     * @param x The column.
+     * @param bits The bit set to fill, indexed by top-down row. from must be a multiple of 64.
+     * @return The number of bits set.
+     */
+    int extractColumn(BmpImage image, int x, long[] bits, int from, int to);
+
+    /**
+     * Inverts len bytes of the array in place.
+     */
+    void invert(byte[] bytes, int offset, int len);
+
+    private static RowKernels select() {
+        if (!"scalar".equals(System.getProperty("bmpmerger.kernels"))
+                && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return new VectorRowKernels();
+            } catch (LinkageError | RuntimeException e) {
+                // Fall through: the Vector API is not usable on this JVM
+            }
+        }
+        return new ScalarRowKernels();
+    }
+}
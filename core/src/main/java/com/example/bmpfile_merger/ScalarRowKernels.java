@@ -0,0 +1,64 @@
+package com.example.bmpfile_merger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Row kernels in plain Java, used when the Vector API is not available.
+ */
+class ScalarRowKernels implements RowKernels {
+
+    @Override
+    public void copyRow(ByteBuffer source, int sourceOffset, byte[] target, int targetOffset, int rowBytes,
+                        byte lastByteMask, boolean invert) {
+        source.get(sourceOffset, target, targetOffset, rowBytes);
+        if (invert) {
+            invert(target, targetOffset, rowBytes);
+        }
+        target[targetOffset + rowBytes - 1] &= lastByteMask;
+    }
+
+    @Override
+    public void copyRow(ByteBuffer source, int sourceOffset, ByteBuffer target, int targetOffset, int rowBytes,
+                        byte lastByteMask, boolean invert) {
+        target.put(targetOffset, source, sourceOffset, rowBytes);
+        if (invert) {
+            int i = targetOffset;
+            for (int end = targetOffset + rowBytes - 7; i < end; i += 8) {
+                target.putLong(i, ~target.getLong(i));
+            }
+            for (int end = targetOffset + rowBytes; i < end; i++) {
+                target.put(i, (byte) ~target.get(i));
+            }
+        }
+        int last = targetOffset + rowBytes - 1;
+        target.put(last, (byte) (target.get(last) & lastByteMask));
+    }
+
+    @Override
+    public int extractColumn(BmpImage image, int x, long[] bits, int from, int to) {
+        int byteIndex = x / 8;
+        int offsetInByte = 7 - (x % 8); // Bits are stored from MSB to LSB within a byte
+        int white = image.inverted ? 0 : 1;
+        int count = 0;
+        for (int y = from; y < to; y++) {
+            int bit = (image.pixelData.get(image.rowOffset(y) + byteIndex) >> offsetInByte) & 1;
+            if (bit == white) {
+                bits[y >>> 6] |= 1L << y;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void invert(byte[] bytes, int offset, int len) {
+        for (int i = offset, end = offset + len; i < end; i++) {
+            bytes[i] = (byte) ~bytes[i];
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.bmpfile_merger;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Row kernels on the incubating Vector API. Only loaded by {@link RowKernels} when the
+ * {@code jdk.incubator.vector} module is present.
+ * <p>
+ * The row copy itself stays a bulk get, which the JVM already turns into a vectorized
+ * memory copy for heap and mapped sources alike; inversion is done a vector at a time on the
+ * copied bytes when the target is an array (the in-memory merge and the preview).
+ * <p>
+ * The other kernels are inherited from {@link ScalarRowKernels}, because vectors measured no
+ * faster there (JMH, 1 fork, 5 iterations):
+ * <ul>
+ *   <li>Inverting into a buffer, the path of every streamed merge: the scalar kernel flips a
+ *       long at a time, and copying plus inverting 64 rows of 2048 bytes into a direct buffer
+ *       ran at 0.158 &plusmn; 0.069 ops/&micro;s, against 0.210 &plusmn; 0.015 for the copy alone
+ *       and 0.134 &plusmn; 0.010 for the vector kernel into an array. Both are bound by memory
+ *       bandwidth, and vectors can only reach a buffer through a memory segment view.</li>
+ *   <li>Extracting the last-bit column ({@code MergeBenchmark.scanLastBitColumn}): a strided
+ *       gather is emulated with scalar loads on x86 and needs a heap array, while the scan
+ *       reads one byte per row and is bound by memory latency. Vector against scalar, in
+ *       ops/s: 94174 &plusmn; 58368 / 87811 &plusmn; 37391 at 4096x4097, 73125 &plusmn; 53929 /
+ *       66505 &plusmn; 16734 at 4096x16385, 1132 &plusmn; 316 / 1157 &plusmn; 58 at 65536x4097 and
+ *       942 &plusmn; 373 / 1087 &plusmn; 331 at 65536x16385.</li>
+ * </ul>
+ */
+class VectorRowKernels extends ScalarRowKernels {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    @Override
+    public void invert(byte[] bytes, int offset, int len) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(len); i < bound; i += SPECIES.length()) {
+            ByteVector.fromArray(SPECIES, bytes, offset + i).not().intoArray(bytes, offset + i);
+        }
+        super.invert(bytes, offset + i, len - i);
+    }
+
+    @Override
+    public String toString() {
+        return "vector (" + SPECIES.vectorBitSize() + "-bit)";
+    }
+}
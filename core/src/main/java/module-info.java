@@ -0,0 +1,12 @@
+/**
+ * The BMP codec and merge engine. Needs nothing but java.base; the other modules are used
+ * only when they are present at run time.
+ */
+module com.example.bmpfile_merger.core {
+    requires static java.management; // Allocation figures in MergeMetrics
+    requires static jdk.management;
+    requires static jdk.jfr; // MergeStageEvent
+    requires static jdk.incubator.vector; // VectorRowKernels
+
+    exports com.example.bmpfile_merger;
+}
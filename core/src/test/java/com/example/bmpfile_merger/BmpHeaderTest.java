@@ -0,0 +1,101 @@
+package com.example.bmpfile_merger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Header validation, including the sizes of the widest rows an int width allows.
+ */
+class BmpHeaderTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void paddedRowSizeDoesNotOverflow() {
+        assertEquals(0, BmpImage.paddedRowSize(0));
+        assertEquals(4, BmpImage.paddedRowSize(1));
+        assertEquals(4, BmpImage.paddedRowSize(32));
+        assertEquals(8, BmpImage.paddedRowSize(33));
+        assertEquals((1 << 28) - 4, BmpImage.paddedRowSize(Integer.MAX_VALUE - 31));
+        assertEquals(1 << 28, BmpImage.paddedRowSize(Integer.MAX_VALUE));
+    }
+
+    @Test
+    void readsWidestRows() throws IOException {
+        BmpHeader header = read(BmpImage.createHeader(1, 3, true), buffer -> buffer.putInt(18, Integer.MAX_VALUE));
+
+        assertEquals(Integer.MAX_VALUE, header.width);
+        assertEquals(1 << 28, header.paddedRowSize);
+        assertEquals(3L << 28, header.pixelDataSize);
+        assertTrue(header.inverted);
+    }
+
+    @Test
+    void readsHeaderWritten() throws IOException {
+        BmpHeader header = read(BmpImage.createHeader(1001, 77), buffer -> { });
+
+        assertEquals(1001, header.width);
+        assertEquals(77, header.height);
+        assertEquals(BmpImage.PIXEL_DATA_OFFSET, header.dataOffset);
+        assertEquals(128, header.paddedRowSize);
+        assertEquals(128L * 77, header.pixelDataSize);
+        assertFalse(header.inverted);
+    }
+
+    @Test
+    void rejectsInvalidHeaders() {
+        assertInvalid("signature 'BM' not found", buffer -> buffer.put(0, (byte) 'X'));
+        assertInvalid("Only 1-bit", buffer -> buffer.putShort(28, (short) 8));
+        assertInvalid("Compressed", buffer -> buffer.putInt(30, 1));
+        assertInvalid("Unsupported BMP dimensions: 0x10", buffer -> buffer.putInt(18, 0));
+        assertInvalid("Unsupported BMP dimensions: -5x10", buffer -> buffer.putInt(18, -5));
+        assertInvalid("top-down", buffer -> buffer.putInt(22, -10));
+        assertInvalid("palette too short", buffer -> buffer.putInt(14, 1000)); // Info header past the end
+    }
+
+    @Test
+    void rejectsShortHeader() throws IOException {
+        Path file = directory.resolve("short.bmp");
+        Files.write(file, Arrays.copyOf(BmpImage.createHeader(10, 10), 53));
+
+        IOException e = assertThrows(IOException.class, () -> read(file));
+        assertTrue(e.getMessage().contains("header too short"), e.getMessage());
+    }
+
+    private void assertInvalid(String message, HeaderEdit edit) {
+        IOException e = assertThrows(IOException.class, () -> read(BmpImage.createHeader(10, 10), edit));
+        assertTrue(e.getMessage().contains(message), e.getMessage());
+    }
+
+    private interface HeaderEdit {
+        void apply(ByteBuffer buffer);
+    }
+
+    private BmpHeader read(byte[] header, HeaderEdit edit) throws IOException {
+        edit.apply(ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN));
+        Path file = Files.createTempFile(directory, "header-", ".bmp");
+        Files.write(file, header);
+        return read(file);
+    }
+
+    private static BmpHeader read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return BmpHeader.read(channel);
+        }
+    }
+}
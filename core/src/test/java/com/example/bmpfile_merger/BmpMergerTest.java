@@ -0,0 +1,142 @@
+package com.example.bmpfile_merger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BmpMergerTest {
+
+    /** Merged widths: odd ones, and ones on both sides of a byte and a padded row. */
+    private static final int[] WIDTHS = {1, 7, 9, 31, 33, 1001};
+
+    /** More than two stripes, the last one partial. */
+    private static final int HEIGHT = 2 * MergeSchedule.STRIPE_ROWS + 77;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void parallelStripesMatchSequentialReference() {
+        for (int width : WIDTHS) {
+            BmpImage file1Bmp = TestImages.random(width + 1, HEIGHT, 1, width, false);
+            BmpImage file2Bmp = TestImages.random(width, 13, 1, width + 100, false);
+
+            BmpImage merged = BmpMerger.merge(file1Bmp, file2Bmp);
+
+            TestImages.assertSamePixels(TestImages.referenceMerge(file1Bmp, file2Bmp), merged);
+        }
+    }
+
+    @Test
+    void invertedPalettesAreMergedByColor() {
+        BmpImage file1Bmp = TestImages.random(34, HEIGHT, 5, 1, true);
+        BmpImage file2Bmp = TestImages.random(33, 100, 5, 2, false);
+
+        BmpImage merged = BmpMerger.merge(file1Bmp, file2Bmp);
+
+        TestImages.assertSamePixels(TestImages.referenceMerge(file1Bmp, file2Bmp), merged);
+    }
+
+    @Test
+    void scheduleCountsBorderRowsAcrossStripes() {
+        BmpImage file1Bmp = TestImages.random(10, HEIGHT, 1, 3, false);
+        MergeSchedule schedule = MergeSchedule.scan(file1Bmp);
+
+        int borderRows = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            assertEquals(borderRows, schedule.borderRowsBefore(y), "border rows above " + y);
+            boolean white = file1Bmp.getPixel(9, y) == 1;
+            assertEquals(white, schedule.isBorderRow(y), "row " + y);
+            borderRows += white ? 1 : 0;
+        }
+        assertEquals(borderRows, schedule.borderRowCount());
+    }
+
+    @Test
+    void mergeToWritesTheSameFileAsMerge() throws IOException {
+        for (int width : WIDTHS) {
+            BmpImage file1Bmp = TestImages.random(width + 1, HEIGHT, 3, width, false);
+            BmpImage file2Bmp = TestImages.random(width, 29, 3, width + 100, true);
+            MergeSchedule schedule = MergeSchedule.scan(file1Bmp);
+
+            File expected = directory.resolve("expected-" + width + ".bmp").toFile();
+            BmpMerger.merge(file1Bmp, file2Bmp, schedule).write(expected);
+            Path actual = directory.resolve("actual-" + width + ".bmp");
+            try (FileChannel channel = FileChannel.open(actual, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                BmpMerger.mergeTo(file1Bmp, file2Bmp, schedule, channel, MergeMonitor.NONE);
+            }
+
+            assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual), "width " + width);
+        }
+    }
+
+    @Test
+    void streamingMatchesMergeOverSeveralWindows() throws IOException {
+        int width = 1001;
+        int windowRows = BmpMerger.STREAM_WINDOW_BYTES / BmpImage.paddedRowSize(width + 1);
+        // Whole windows only, then a partial window at the top of the picture
+        for (int height : new int[] {3 * windowRows, 2 * windowRows + 123}) {
+            for (boolean inverted : new boolean[] {false, true}) {
+                BmpImage file1Bmp = TestImages.random(width + 1, height, 2, height, inverted);
+                BmpImage file2Bmp = TestImages.random(width, 41, 2, height + 1, !inverted);
+                File file1 = directory.resolve("body-" + height + "-" + inverted + ".bmp").toFile();
+                file1Bmp.write(file1);
+
+                File expected = directory.resolve("expected-" + height + "-" + inverted + ".bmp").toFile();
+                BmpImage merged = BmpMerger.merge(file1Bmp, file2Bmp);
+                merged.write(expected);
+                File actual = directory.resolve("streamed-" + height + "-" + inverted + ".bmp").toFile();
+                int borderRows = BmpMerger.mergeStreaming(file1, file2Bmp, actual);
+
+                assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()),
+                        height + " rows, inverted " + inverted);
+                assertEquals(MergeSchedule.scan(file1Bmp).borderRowCount(), borderRows);
+            }
+        }
+    }
+
+    @Test
+    void mergeToStopsWhenCancelled() {
+        BmpImage file1Bmp = TestImages.random(1002, HEIGHT, 1, 4, false);
+        BmpImage file2Bmp = TestImages.random(1001, 7, 1, 5, false);
+        AtomicLong rows = new AtomicLong();
+        MergeMonitor cancelAfterFirstRows = new MergeMonitor() {
+            @Override
+            public void rowsMerged(int count) {
+                rows.addAndGet(count);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return rows.get() > 0;
+            }
+        };
+
+        assertThrows(CancellationException.class, () -> {
+            try (FileChannel channel = FileChannel.open(directory.resolve("cancelled.bmp"),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                BmpMerger.mergeTo(file1Bmp, file2Bmp, MergeSchedule.scan(file1Bmp), channel, cancelAfterFirstRows);
+            }
+        });
+    }
+
+    @Test
+    void rejectsWrongWidths() {
+        BmpImage file1Bmp = TestImages.random(10, 5, 1, 6, false);
+        BmpImage file2Bmp = TestImages.random(10, 5, 1, 7, false);
+
+        assertThrows(IllegalArgumentException.class, () -> BmpMerger.merge(file1Bmp, file2Bmp));
+    }
+}
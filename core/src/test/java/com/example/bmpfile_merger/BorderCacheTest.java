@@ -0,0 +1,153 @@
+package com.example.bmpfile_merger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The cache must keep within its byte budget, notice edited files and read each version once.
+ */
+class BorderCacheTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 16;
+    private static final long IMAGE_BYTES = (long) BmpImage.paddedRowSize(WIDTH) * HEIGHT;
+
+    @TempDir
+    File directory;
+
+    @Test
+    void evictsLeastRecentlyUsedOverBudget() throws IOException {
+        File a = border("a.bmp", 1);
+        File b = border("b.bmp", 2);
+        File c = border("c.bmp", 3);
+        BorderCache cache = new BorderCache(2 * IMAGE_BYTES);
+        List<File> evicted = new ArrayList<>();
+        cache.setEvictionListener(evicted::add);
+
+        BmpImage imageA = cache.get(a);
+        cache.get(b);
+        assertSame(imageA, cache.get(a)); // b is now the least recently used
+        cache.get(c);
+
+        assertEquals(List.of(b.getCanonicalFile()), evicted);
+        assertEquals(new BorderCache.Stats(1, 3, 1, 2, 2 * IMAGE_BYTES), cache.stats());
+        assertSame(imageA, cache.get(a));
+        cache.get(b);
+        assertEquals(List.of(b.getCanonicalFile(), c.getCanonicalFile()), evicted);
+    }
+
+    @Test
+    void doesNotCacheBorderLargerThanBudget() throws IOException {
+        File a = border("a.bmp", 1);
+        BorderCache cache = new BorderCache(IMAGE_BYTES - 1);
+
+        assertNotSame(cache.get(a), cache.get(a));
+        assertEquals(new BorderCache.Stats(0, 2, 0, 0, 0), cache.stats());
+    }
+
+    @Test
+    void invalidateDropsEntry() throws IOException {
+        File a = border("a.bmp", 1);
+        BorderCache cache = new BorderCache();
+        BmpImage image = cache.get(a);
+
+        cache.invalidate(a);
+
+        assertEquals(new BorderCache.Stats(0, 1, 0, 0, 0), cache.stats());
+        assertNotSame(image, cache.get(a));
+        assertEquals(2, cache.stats().misses());
+    }
+
+    @Test
+    void rereadsEditedFile() throws IOException {
+        File a = border("a.bmp", 1);
+        BorderCache cache = new BorderCache();
+        BmpImage image = cache.get(a);
+
+        // Same size, later modification time
+        FileTime modified = Files.getLastModifiedTime(a.toPath());
+        TestImages.random(WIDTH, HEIGHT, 3, 2, false).write(a);
+        Files.setLastModifiedTime(a.toPath(), FileTime.fromMillis(modified.toMillis() + 2000));
+        BmpImage edited = cache.get(a);
+        assertNotSame(image, edited);
+        TestImages.assertSamePixels(BmpImage.read(a), edited);
+
+        // Other size, same modification time
+        modified = Files.getLastModifiedTime(a.toPath());
+        TestImages.random(WIDTH, HEIGHT + 1, 3, 3, false).write(a);
+        Files.setLastModifiedTime(a.toPath(), modified);
+        BmpImage taller = cache.get(a);
+        assertEquals(HEIGHT + 1, taller.height);
+
+        assertEquals(3, cache.stats().misses());
+        assertEquals(3, cache.stats().entries()); // The old versions stay until they are evicted
+    }
+
+    @Test
+    void readsOnceUnderConcurrentRequests() throws Exception {
+        File a = border("a.bmp", 1);
+        BorderCache cache = new BorderCache();
+        int threads = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<BmpImage>> results = new ArrayList<>();
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            Callable<BmpImage> get = () -> {
+                start.await();
+                return cache.get(a);
+            };
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(get));
+            }
+            start.countDown();
+            BmpImage first = results.getFirst().get();
+            for (Future<BmpImage> result : results) {
+                assertSame(first, result.get());
+            }
+        }
+        assertEquals(new BorderCache.Stats(threads - 1, 1, 0, 1, IMAGE_BYTES), cache.stats());
+    }
+
+    @Test
+    void failedReadIsNotCached() throws IOException {
+        File a = border("a.bmp", 1);
+        byte[] valid = Files.readAllBytes(a.toPath());
+        FileTime modified = Files.getLastModifiedTime(a.toPath());
+        byte[] corrupt = valid.clone();
+        corrupt[0] = 'X'; // Not a BMP signature
+        Files.write(a.toPath(), corrupt);
+        Files.setLastModifiedTime(a.toPath(), modified);
+        BorderCache cache = new BorderCache();
+
+        assertThrows(IOException.class, () -> cache.get(a));
+
+        // Repaired with the same size and time, i.e. the same cache key
+        Files.write(a.toPath(), valid);
+        Files.setLastModifiedTime(a.toPath(), modified);
+        TestImages.assertSamePixels(BmpImage.read(a), cache.get(a));
+        assertEquals(new BorderCache.Stats(0, 1, 0, 1, IMAGE_BYTES), cache.stats());
+    }
+
+    private File border(String name, long seed) throws IOException {
+        File file = new File(directory, name);
+        TestImages.random(WIDTH, HEIGHT, 3, seed, false).write(file);
+        return file;
+    }
+}
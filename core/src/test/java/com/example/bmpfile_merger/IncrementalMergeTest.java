@@ -0,0 +1,102 @@
+package com.example.bmpfile_merger;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Updates in place must leave the same image as merging the new inputs from scratch.
+ */
+class IncrementalMergeTest {
+
+    private static final int WIDTH = 333;
+    private static final int HEIGHT = MergeSchedule.STRIPE_ROWS + 1000;
+
+    @Test
+    void withBorderMatchesFullMerge() {
+        BmpImage file1Bmp = TestImages.random(WIDTH + 1, HEIGHT, 3, 1, false);
+        IncrementalMerge merge = IncrementalMerge.merge(file1Bmp, TestImages.random(WIDTH, 50, 3, 2, false),
+                MergeSchedule.scan(file1Bmp), MergeMonitor.NONE);
+        BmpImage before = copy(merge.image());
+        BmpImage newFile2Bmp = TestImages.random(WIDTH, 77, 3, 3, true);
+
+        IncrementalMerge updated = merge.withBorder(newFile2Bmp, MergeMonitor.NONE);
+
+        assertSame(merge.image(), updated.image(), "updated in place");
+        TestImages.assertSamePixels(BmpMerger.merge(file1Bmp, newFile2Bmp), updated.image());
+        assertOnlyChangedRowsDiffer(before, updated);
+    }
+
+    @Test
+    void withBodyMatchesFullMerge() {
+        BmpImage file1Bmp = TestImages.random(WIDTH + 1, HEIGHT, 3, 4, false);
+        BmpImage file2Bmp = TestImages.random(WIDTH, 50, 3, 5, false);
+        IncrementalMerge merge = IncrementalMerge.merge(file1Bmp, file2Bmp, MergeSchedule.scan(file1Bmp), MergeMonitor.NONE);
+        BmpImage before = copy(merge.image());
+
+        // The same body down to row 3000, a different one below: the last bits differ from there on
+        BmpImage newFile1Bmp = copy(file1Bmp);
+        BmpImage other = TestImages.random(WIDTH + 1, HEIGHT, 3, 6, false);
+        for (int y = 3000; y < HEIGHT; y++) {
+            newFile1Bmp.pixelData.put(newFile1Bmp.rowOffset(y), other.pixelData, other.rowOffset(y), other.paddedRowSize);
+        }
+        MergeSchedule newSchedule = MergeSchedule.scan(newFile1Bmp);
+        assertTrue(merge.schedule().firstDifference(newSchedule) >= 3000);
+
+        IncrementalMerge updated = merge.withBody(newFile1Bmp, newSchedule, MergeMonitor.NONE);
+
+        assertSame(merge.image(), updated.image(), "updated in place");
+        TestImages.assertSamePixels(BmpMerger.merge(newFile1Bmp, file2Bmp), updated.image());
+        assertOnlyChangedRowsDiffer(before, updated);
+    }
+
+    @Test
+    void chainedUpdatesMatchFullMerge() {
+        BmpImage file1Bmp = TestImages.random(WIDTH + 1, HEIGHT, 1, 7, false);
+        IncrementalMerge merge = IncrementalMerge.merge(file1Bmp, TestImages.random(WIDTH, 10, 1, 8, false),
+                MergeSchedule.scan(file1Bmp), MergeMonitor.NONE);
+        BmpImage newFile1Bmp = TestImages.random(WIDTH + 1, HEIGHT, 1, 9, true);
+        BmpImage newFile2Bmp = TestImages.random(WIDTH, 3, 1, 10, false);
+
+        merge = merge.withBody(newFile1Bmp, MergeSchedule.scan(newFile1Bmp), MergeMonitor.NONE)
+                .withBorder(newFile2Bmp, MergeMonitor.NONE);
+
+        TestImages.assertSamePixels(TestImages.referenceMerge(newFile1Bmp, newFile2Bmp), merge.image());
+    }
+
+    @Test
+    void rejectsBodyOfOtherHeight() {
+        BmpImage file1Bmp = TestImages.random(WIDTH + 1, 100, 1, 11, false);
+        IncrementalMerge merge = IncrementalMerge.merge(file1Bmp, TestImages.random(WIDTH, 10, 1, 12, false),
+                MergeSchedule.scan(file1Bmp), MergeMonitor.NONE);
+        BmpImage taller = TestImages.random(WIDTH + 1, 101, 1, 13, false);
+
+        assertFalse(merge.canReplaceBody(taller));
+        assertThrows(IllegalArgumentException.class,
+                () -> merge.withBody(taller, MergeSchedule.scan(taller), MergeMonitor.NONE));
+    }
+
+    /**
+     * Rows outside {@link IncrementalMerge#changedRows()} must be untouched by the update.
+     */
+    private static void assertOnlyChangedRowsDiffer(BmpImage before, IncrementalMerge updated) {
+        BitSet changed = updated.changedRows();
+        BmpImage after = updated.image();
+        for (int y = changed.nextClearBit(0); y < after.height; y = changed.nextClearBit(y + 1)) {
+            assertEquals(before.row(y), after.row(y), "row " + y + " is not marked as changed");
+        }
+    }
+
+    private static BmpImage copy(BmpImage image) {
+        ByteBuffer pixels = ByteBuffer.allocate(image.pixelData.capacity());
+        pixels.put(0, image.pixelData, 0, pixels.capacity());
+        return new BmpImage(image.width, image.height, pixels, image.inverted);
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.bmpfile_merger;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketEdges() {
+        for (int value = 0; value < 16; value++) {
+            assertEquals(value, LatencyHistogram.bucket(value), "linear bucket");
+        }
+        assertEquals(16, LatencyHistogram.bucket(16));
+        assertEquals(16, LatencyHistogram.bucket(17));
+        assertEquals(17, LatencyHistogram.bucket(18));
+        assertEquals(23, LatencyHistogram.bucket(31));
+        assertEquals(24, LatencyHistogram.bucket(32));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(LatencyHistogram.bucket(Long.MAX_VALUE)));
+
+        // Buckets are contiguous: each ends right before the next one starts
+        for (int bucket = 0; bucket < LatencyHistogram.bucket(Long.MAX_VALUE); bucket++) {
+            long upperBound = LatencyHistogram.upperBound(bucket);
+            assertEquals(bucket, LatencyHistogram.bucket(upperBound), "upper bound of " + bucket);
+            assertEquals(bucket + 1, LatencyHistogram.bucket(upperBound + 1), "after bucket " + bucket);
+        }
+    }
+
+    @Test
+    void percentilesOfKnownValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(100, histogram.count());
+        assertEquals(5050, histogram.sum());
+        assertEquals(100, histogram.max());
+        assertEquals(1, histogram.percentile(0));
+        assertEquals(10, histogram.percentile(10)); // Still in the linear range
+        assertEquals(51, histogram.percentile(50)); // 50 shares the bucket 48..51
+        assertEquals(100, histogram.percentile(99)); // The bucket 96..103, capped at the maximum
+        assertEquals(100, histogram.percentile(100));
+    }
+
+    @Test
+    void emptyAndNegative() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(50));
+
+        histogram.record(-5);
+
+        assertEquals(1, histogram.count());
+        assertEquals(0, histogram.sum());
+        assertEquals(0, histogram.percentile(100));
+    }
+
+    @Test
+    void percentilesWithinTheBucketError() {
+        SplittableRandom random = new SplittableRandom(1);
+        long[] values = new long[10_000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextLong(1L << random.nextInt(1, 40)); // Spread over many powers of two
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[] {1, 10, 50, 90, 99, 99.9, 100}) {
+            long exact = values[(int) Math.ceil(values.length * percentile / 100.0) - 1];
+            long reported = histogram.percentile(percentile);
+            assertTrue(reported >= exact && reported <= exact + exact / 8, "p" + percentile + ": " + reported + " for " + exact);
+        }
+    }
+
+    @Test
+    void concurrentRecordsAreAllCounted() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        IntStream.range(0, 100_000).parallel().forEach(histogram::record);
+
+        assertEquals(100_000, histogram.count());
+        assertEquals(100_000L * 99_999 / 2, histogram.sum());
+        assertEquals(99_999, histogram.max());
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.bmpfile_merger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Decodes every output format with an independent reader and compares it with the in-memory merge.
+ */
+class OutputFormatTest {
+
+    private static final int[] WIDTHS = {1, 9, 33, 1001, 1728};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void bmpDecodesToTheMerge() throws IOException {
+        for (int width : WIDTHS) {
+            Merge merge = new Merge(width, 300, 1, width);
+            assertSamePixels(merge.expected, ImageIO.read(merge.writeTo(OutputFormat.BMP).toFile()), "BMP width " + width);
+        }
+    }
+
+    @Test
+    void pbmDecodesToTheMerge() throws IOException {
+        for (int width : WIDTHS) {
+            Merge merge = new Merge(width, 300, 1, width);
+            Path file = merge.writeTo(OutputFormat.PBM);
+
+            byte[] bytes = Files.readAllBytes(file);
+            String header = "P4\n" + width + " 300\n";
+            assertEquals(header, new String(bytes, 0, header.length(), StandardCharsets.US_ASCII));
+            int rowBytes = (width + 7) / 8;
+            assertEquals(header.length() + rowBytes * 300, bytes.length);
+            assertEquals(OutputFormat.PBM.size(width, 300), bytes.length);
+            for (int y = 0; y < 300; y++) {
+                for (int x = 0; x < width; x++) {
+                    int black = (bytes[header.length() + y * rowBytes + (x >> 3)] >> (7 - (x & 7))) & 1;
+                    assertEquals(merge.expected.getPixel(x, y), black ^ 1, "PBM width " + width + " pixel (" + x + ", " + y + ")");
+                }
+            }
+        }
+    }
+
+    @Test
+    void g4TiffDecodesToTheMerge() throws IOException {
+        for (int maxRun : new int[] {1, 4, 200, 5000}) {
+            for (int width : WIDTHS) {
+                Merge merge = new Merge(width, 300, maxRun, width * 31L + maxRun);
+                BufferedImage decoded = ImageIO.read(merge.writeTo(OutputFormat.TIFF_G4).toFile());
+                assertSamePixels(merge.expected, decoded, "G4 width " + width + ", runs up to " + maxRun);
+            }
+        }
+    }
+
+    @Test
+    void g4TiffThroughStreamMatchesFile() throws IOException {
+        // 1 and 1000 rows of noise: a strip that fits the output buffer, and one spooled to disk
+        for (int height : new int[] {1, 1000}) {
+            Merge merge = new Merge(1728, height, 1, height);
+            Path file = merge.writeTo(OutputFormat.TIFF_G4);
+            Path streamed = merge.writeToStream(OutputFormat.TIFF_G4);
+
+            assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(streamed), height + " rows");
+            assertSamePixels(merge.expected, ImageIO.read(streamed.toFile()), "streamed G4, " + height + " rows");
+        }
+        assertTrue(Files.size(directory.resolve("merged-1728-1000-stream.tif")) > 256 * 1024, "spooled");
+    }
+
+    @Test
+    void g4TiffOfUniformImagesDecodes() throws IOException {
+        for (boolean white : new boolean[] {false, true}) {
+            BmpImage uniform = new BmpImage(1001, 50, new byte[BmpImage.paddedRowSize(1001) * 50]);
+            if (white) {
+                for (int i = 0; i < uniform.pixelData.capacity(); i++) {
+                    uniform.pixelData.put(i, (byte) 0xFF);
+                }
+            }
+            Path file = directory.resolve("uniform-" + white + ".tif");
+            uniform.write(file.toFile(), OutputFormat.TIFF_G4);
+            BufferedImage decoded = ImageIO.read(file.toFile());
+            assertSamePixels(uniform, decoded, "uniform " + (white ? "white" : "black"));
+            assertTrue(Files.size(file) < 1000, "a uniform image compresses to almost nothing");
+        }
+    }
+
+    private static void assertSamePixels(BmpImage expected, BufferedImage actual, String message) {
+        assertNotNull(actual, message + ": no ImageIO reader");
+        assertEquals(expected.width, actual.getWidth(), message);
+        assertEquals(expected.height, actual.getHeight(), message);
+        for (int y = 0; y < expected.height; y++) {
+            for (int x = 0; x < expected.width; x++) {
+                int white = (actual.getRGB(x, y) & 0xFFFFFF) == 0xFFFFFF ? 1 : 0;
+                if (white != expected.getPixel(x, y)) {
+                    assertEquals(expected.getPixel(x, y), white, message + " pixel (" + x + ", " + y + ")");
+                }
+            }
+        }
+    }
+
+    /**
+     * A random body and border of one merged width, merged in memory as the expected result.
+     */
+    private final class Merge {
+        final BmpImage file1Bmp;
+        final BmpImage file2Bmp;
+        final MergeSchedule schedule;
+        final BmpImage expected;
+
+        Merge(int width, int height, int maxRun, long seed) {
+            file1Bmp = TestImages.random(width + 1, height, maxRun, seed, false);
+            file2Bmp = TestImages.random(width, 17, maxRun, seed + 1, true);
+            schedule = MergeSchedule.scan(file1Bmp);
+            expected = BmpMerger.merge(file1Bmp, file2Bmp, schedule);
+        }
+
+        Path writeTo(OutputFormat format) throws IOException {
+            Path file = directory.resolve("merged-" + expected.width + "-" + System.nanoTime() + "." + format.extension());
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                BmpMerger.mergeTo(file1Bmp, file2Bmp, schedule, format, channel, MergeMonitor.NONE);
+            }
+            return file;
+        }
+
+        /**
+         * Writes through a channel that cannot seek back, as an HTTP response.
+         */
+        Path writeToStream(OutputFormat format) throws IOException {
+            Path file = directory.resolve("merged-" + expected.width + "-" + expected.height + "-stream." + format.extension());
+            try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE_NEW);
+                 WritableByteChannel channel = Channels.newChannel(out)) {
+                BmpMerger.mergeTo(file1Bmp, file2Bmp, schedule, format, channel, MergeMonitor.NONE);
+            }
+            return file;
+        }
+    }
+}
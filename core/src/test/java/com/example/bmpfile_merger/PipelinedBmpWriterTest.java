@@ -0,0 +1,221 @@
+package com.example.bmpfile_merger;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PipelinedBmpWriterTest {
+
+    /** 128 bytes per row: 8192 rows fill a pooled buffer. */
+    private static final int WIDTH = 1001;
+    private static final int ROWS_PER_BUFFER = PipelinedBmpWriter.BUFFER_BYTES / BmpImage.paddedRowSize(WIDTH);
+
+    @Test
+    void rowByRowFillsSeveralBuffersAndAPartialLastOne() throws IOException {
+        int height = 2 * ROWS_PER_BUFFER + 5;
+        byte[] pixels = randomRows(WIDTH, height, 1);
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+
+        try (PipelinedBmpWriter writer = new PipelinedBmpWriter(Channels.newChannel(file), WIDTH, height, false)) {
+            for (int row = 0; row < height; row++) {
+                ByteBuffer target = writer.beginRow();
+                int rowBytes = (WIDTH + 7) / 8;
+                target.put(target.position(), pixels, row * BmpImage.paddedRowSize(WIDTH), rowBytes);
+                writer.endRow();
+            }
+        }
+
+        assertArrayEquals(bmpFile(WIDTH, height, pixels), file.toByteArray());
+    }
+
+    @Test
+    void runsOfRowsEndWithThePartialLastBuffer() throws IOException {
+        int height = ROWS_PER_BUFFER + 100;
+        int paddedRowSize = BmpImage.paddedRowSize(WIDTH);
+        byte[] pixels = randomRows(WIDTH, height, 2);
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+
+        try (PipelinedBmpWriter writer = new PipelinedBmpWriter(Channels.newChannel(file), WIDTH, height, false)) {
+            int rowsDone = 0;
+            while (rowsDone < height) {
+                ByteBuffer target = writer.beginRow();
+                int rows = writer.rowsFree();
+                assertEquals(Math.min(ROWS_PER_BUFFER, height - rowsDone), rows);
+                for (int i = rows - 1; i >= 0; i--) { // Any order
+                    target.put(target.position() + i * paddedRowSize, pixels, (rowsDone + i) * paddedRowSize, (WIDTH + 7) / 8);
+                }
+                writer.endRows(rows);
+                rowsDone += rows;
+            }
+        }
+
+        assertArrayEquals(bmpFile(WIDTH, height, pixels), file.toByteArray());
+    }
+
+    @Test
+    void packedRowsMixWithSingleRows() throws IOException {
+        int height = ROWS_PER_BUFFER + 10;
+        int paddedRowSize = BmpImage.paddedRowSize(WIDTH);
+        byte[] pixels = bmpFile(WIDTH, height, randomRows(WIDTH, height, 3));
+        pixels = Arrays.copyOfRange(pixels, BmpImage.PIXEL_DATA_OFFSET, pixels.length); // With zero padding
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+
+        try (PipelinedBmpWriter writer = new PipelinedBmpWriter(Channels.newChannel(file), WIDTH, height, false)) {
+            writer.writeRows(ByteBuffer.wrap(pixels, 0, 3 * paddedRowSize));
+            ByteBuffer target = writer.beginRow();
+            target.put(target.position(), pixels, 3 * paddedRowSize, paddedRowSize);
+            writer.endRow();
+            writer.writeRows(ByteBuffer.wrap(pixels, 4 * paddedRowSize, pixels.length - 4 * paddedRowSize));
+        }
+
+        assertArrayEquals(bmpFile(WIDTH, height, pixels), file.toByteArray());
+    }
+
+    @Test
+    void rowsWiderThanAPooledBufferGetTheirOwn() throws IOException {
+        int width = 8 * PipelinedBmpWriter.BUFFER_BYTES + 9;
+        byte[] pixels = randomRows(width, 3, 4);
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+
+        try (PipelinedBmpWriter writer = new PipelinedBmpWriter(Channels.newChannel(file), width, 3, true)) {
+            writer.writeRows(ByteBuffer.wrap(pixels));
+        }
+
+        byte[] expected = new byte[BmpImage.PIXEL_DATA_OFFSET + pixels.length]; // Packed rows are written as they are
+        System.arraycopy(BmpImage.createHeader(width, 3, true), 0, expected, 0, BmpImage.PIXEL_DATA_OFFSET);
+        System.arraycopy(pixels, 0, expected, BmpImage.PIXEL_DATA_OFFSET, pixels.length);
+        assertArrayEquals(expected, file.toByteArray());
+    }
+
+    @Test
+    void emptyImageGetsOnlyTheHeader() throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+
+        new PipelinedBmpWriter(Channels.newChannel(file), WIDTH, 0, false).close();
+
+        assertArrayEquals(BmpImage.createHeader(WIDTH, 0), file.toByteArray());
+    }
+
+    @Test
+    void writeErrorIsReportedToTheCaller() {
+        IOException error = writeFailing(new IOException("Disk full"));
+
+        assertEquals("Disk full", error.getMessage());
+    }
+
+    @Test
+    void runtimeExceptionOnTheWriterThreadIsReportedToTheCaller() {
+        IllegalStateException failure = new IllegalStateException("Channel broken");
+
+        IOException error = writeFailing(failure);
+
+        assertSame(failure, error.getCause());
+        assertTrue(error.getMessage().contains("Channel broken"), error.getMessage());
+    }
+
+    /**
+     * Writes rows to a channel that fails once a buffer has been written, and returns what the
+     * writer reports. A producer left waiting for a buffer fails the timeout.
+     */
+    private static IOException writeFailing(Exception failure) {
+        int height = 3 * ROWS_PER_BUFFER;
+        WritableByteChannel failing = new WritableByteChannel() {
+            private long written;
+
+            @Override
+            public int write(ByteBuffer source) throws IOException {
+                if (written > PipelinedBmpWriter.BUFFER_BYTES) {
+                    if (failure instanceof IOException ioException) {
+                        throw ioException;
+                    }
+                    throw (RuntimeException) failure;
+                }
+                int count = source.remaining();
+                source.position(source.limit());
+                written += count;
+                return count;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        return assertTimeoutPreemptively(Duration.ofSeconds(30), () -> assertThrows(IOException.class, () -> {
+            try (PipelinedBmpWriter writer = new PipelinedBmpWriter(failing, WIDTH, height, false)) {
+                for (int row = 0; row < height; row++) {
+                    writer.beginRow();
+                    writer.endRow();
+                }
+            }
+        }));
+    }
+
+    @Test
+    void closeReportsMissingRows() {
+        PipelinedBmpWriter writer = new PipelinedBmpWriter(Channels.newChannel(new ByteArrayOutputStream()), WIDTH, 3, false);
+
+        IOException error = assertThrows(IOException.class, () -> {
+            try (writer) {
+                writer.beginRow();
+                writer.endRow();
+                writer.beginRow();
+                writer.endRow();
+            }
+        });
+        assertTrue(error.getMessage().contains("2 of 3"), error.getMessage());
+    }
+
+    @Test
+    void rejectsRowsBeyondTheHeightAndPartialRows() throws IOException {
+        try (PipelinedBmpWriter writer = new PipelinedBmpWriter(Channels.newChannel(new ByteArrayOutputStream()), WIDTH, 1, false)) {
+            assertThrows(IllegalArgumentException.class, () -> writer.writeRows(ByteBuffer.allocate(BmpImage.paddedRowSize(WIDTH) + 1)));
+            assertThrows(IllegalArgumentException.class, () -> writer.writeRows(ByteBuffer.allocate(2 * BmpImage.paddedRowSize(WIDTH))));
+            writer.beginRow();
+            writer.endRow();
+            assertThrows(IllegalStateException.class, writer::beginRow);
+        }
+    }
+
+    /**
+     * Random padded rows, the padding included.
+     */
+    private static byte[] randomRows(int width, int height, long seed) {
+        byte[] pixels = new byte[BmpImage.paddedRowSize(width) * height];
+        new SplittableRandom(seed).nextBytes(pixels);
+        return pixels;
+    }
+
+    /**
+     * The expected file: the header, then the pixel bytes of every row with its padding zeroed.
+     */
+    private static byte[] bmpFile(int width, int height, byte[] pixels) {
+        int paddedRowSize = BmpImage.paddedRowSize(width);
+        int rowBytes = (width + 7) / 8;
+        byte[] file = new byte[BmpImage.PIXEL_DATA_OFFSET + paddedRowSize * height];
+        System.arraycopy(BmpImage.createHeader(width, height), 0, file, 0, BmpImage.PIXEL_DATA_OFFSET);
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(pixels, row * paddedRowSize, file, BmpImage.PIXEL_DATA_OFFSET + row * paddedRowSize, rowBytes);
+        }
+        return file;
+    }
+}
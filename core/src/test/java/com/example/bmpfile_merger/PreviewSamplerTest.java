@@ -0,0 +1,112 @@
+package com.example.bmpfile_merger;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PreviewSamplerTest {
+
+    @Test
+    void averagesBoxesOfKnownPattern() {
+        // 8x4 pixels rendered to 2x2: each output pixel averages a 4x2 box
+        byte[] rows = {
+                (byte) 0b1111_0101, // Top rows: left box all white, right box half white
+                (byte) 0b1111_1010,
+                (byte) 0b0000_1000, // Bottom rows: left box all black, right box one white pixel
+                (byte) 0b0000_0000};
+        byte[] pixels = new byte[4 * 4];
+        for (int y = 0; y < 4; y++) {
+            pixels[(3 - y) * 4] = rows[y]; // Bottom-up, 4 bytes per padded row
+        }
+
+        assertArrayEquals(new byte[] {(byte) 255, (byte) 127, 0, 31},
+                PreviewSampler.render(new BmpImage(8, 4, pixels), 0, 0, 8, 4, 2, 2));
+        assertArrayEquals(new byte[] {0, (byte) 127, (byte) 255, (byte) 223},
+                PreviewSampler.render(new BmpImage(8, 4, ByteBuffer.wrap(pixels), true), 0, 0, 8, 4, 2, 2), "white-first palette");
+        assertArrayEquals(new byte[] {(byte) 127, 0, 0, 0},
+                PreviewSampler.render(new BmpImage(8, 4, pixels), 4, 2, 4, 2, 4, 1), "bottom right box, column by column");
+    }
+
+    @Test
+    void matchesPixelByPixelAverage() {
+        BmpImage image = TestImages.random(1001, 777, 5, 1, true);
+
+        for (int[] region : new int[][] {{0, 0, 1001, 777, 50, 33}, {13, 200, 300, 101, 7, 9}, {990, 770, 11, 7, 40, 30}}) {
+            byte[] gray = PreviewSampler.render(image, region[0], region[1], region[2], region[3], region[4], region[5]);
+            assertArrayEquals(referenceRender(image, region), gray, Arrays.toString(region));
+        }
+    }
+
+    @Test
+    void rendersOnlyRowsCoveringChangedRows() {
+        BmpImage image = TestImages.random(333, 400, 3, 2, false);
+        int outWidth = 40;
+        int outHeight = 100; // 4 source rows per raster row
+        BitSet changedRows = new BitSet();
+        changedRows.set(10);
+        changedRows.set(11);
+        changedRows.set(250);
+        changedRows.set(399);
+        BmpImage other = TestImages.random(333, 400, 3, 3, false);
+        for (int y = changedRows.nextSetBit(0); y >= 0; y = changedRows.nextSetBit(y + 1)) {
+            image.pixelData.put(image.rowOffset(y), other.pixelData, other.rowOffset(y), image.paddedRowSize);
+        }
+        byte[] expected = PreviewSampler.render(image, 0, 0, 333, 400, outWidth, outHeight);
+        byte[] gray = new byte[outWidth * outHeight];
+        Arrays.fill(gray, (byte) 0x55); // Marks raster rows that were not rendered
+
+        BitSet rendered = PreviewSampler.renderChangedRows(image, 0, 0, 333, 400, outWidth, outHeight, gray, changedRows);
+
+        BitSet expectedRendered = new BitSet();
+        expectedRendered.set(2); // Rows 8..11
+        expectedRendered.set(62); // Rows 248..251
+        expectedRendered.set(99); // Rows 396..399
+        assertEquals(expectedRendered, rendered);
+        for (int oy = 0; oy < outHeight; oy++) {
+            byte[] row = Arrays.copyOfRange(gray, oy * outWidth, (oy + 1) * outWidth);
+            byte[] expectedRow = rendered.get(oy) ? Arrays.copyOfRange(expected, oy * outWidth, (oy + 1) * outWidth) : filled(outWidth);
+            assertArrayEquals(expectedRow, row, "raster row " + oy);
+        }
+    }
+
+    private static byte[] filled(int length) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) 0x55);
+        return bytes;
+    }
+
+    /**
+     * Averages the covered pixels one by one, with the same box edges as the sampler.
+     * @param region srcX, srcY, srcWidth, srcHeight, outWidth and outHeight.
+     */
+    private static byte[] referenceRender(BmpImage image, int[] region) {
+        int srcX = region[0];
+        int srcY = region[1];
+        int srcWidth = region[2];
+        int srcHeight = region[3];
+        int outWidth = region[4];
+        int outHeight = region[5];
+        byte[] gray = new byte[outWidth * outHeight];
+        for (int oy = 0; oy < outHeight; oy++) {
+            int y0 = srcY + oy * srcHeight / outHeight;
+            int y1 = Math.max(y0 + 1, srcY + (oy + 1) * srcHeight / outHeight);
+            for (int ox = 0; ox < outWidth; ox++) {
+                int x0 = srcX + ox * srcWidth / outWidth;
+                int x1 = Math.max(x0 + 1, srcX + (ox + 1) * srcWidth / outWidth);
+                int white = 0;
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        white += image.getPixel(x, y);
+                    }
+                }
+                gray[oy * outWidth + ox] = (byte) (white * 255 / ((x1 - x0) * (y1 - y0)));
+            }
+        }
+        return gray;
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.bmpfile_merger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * The vector kernels must give the same bytes as the scalar ones. Runs with and without the
+ * {@code jdk.incubator.vector} module; without it only the selection is checked.
+ */
+class RowKernelsTest {
+
+    private static final boolean VECTOR_API = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    /** Row lengths around the vector and long sizes, and odd ones. */
+    private static final int[] ROW_BYTES = {1, 2, 7, 8, 9, 15, 16, 17, 31, 32, 33, 63, 64, 65, 127, 129, 255, 1001};
+
+    @Test
+    void selectsVectorKernelsOnlyWithTheModule() {
+        boolean forcedScalar = "scalar".equals(System.getProperty("bmpmerger.kernels"));
+        assertEquals(VECTOR_API && !forcedScalar, RowKernels.INSTANCE instanceof VectorRowKernels, RowKernels.INSTANCE.toString());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void copyRowIntoArrayMatches(boolean invert) {
+        RowKernels vector = vectorKernels();
+        RowKernels scalar = new ScalarRowKernels();
+        SplittableRandom random = new SplittableRandom(1);
+        for (int rowBytes : ROW_BYTES) {
+            for (int offset = 0; offset < 9; offset++) {
+                ByteBuffer source = randomBuffer(random, rowBytes + 2 * offset, offset % 2 == 0);
+                byte mask = (byte) (0xFF << random.nextInt(8));
+                byte[] expected = randomArray(random, rowBytes + 3 * offset);
+                byte[] actual = expected.clone();
+
+                scalar.copyRow(source, offset, expected, 2 * offset, rowBytes, mask, invert);
+                vector.copyRow(source, offset, actual, 2 * offset, rowBytes, mask, invert);
+
+                assertArrayEquals(expected, actual, rowBytes + " bytes at offset " + offset);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void copyRowIntoBufferMatches(boolean invert) {
+        RowKernels vector = vectorKernels();
+        RowKernels scalar = new ScalarRowKernels();
+        SplittableRandom random = new SplittableRandom(2);
+        for (int rowBytes : ROW_BYTES) {
+            for (int offset = 0; offset < 9; offset++) {
+                ByteBuffer source = randomBuffer(random, rowBytes + 2 * offset, offset % 2 != 0);
+                byte mask = (byte) (0xFF << random.nextInt(8));
+                ByteBuffer expected = randomBuffer(random, rowBytes + 3 * offset, true);
+                ByteBuffer actual = ByteBuffer.allocateDirect(expected.capacity()).put(0, expected, 0, expected.capacity());
+
+                scalar.copyRow(source, offset, expected, 2 * offset, rowBytes, mask, invert);
+                vector.copyRow(source, offset, actual, 2 * offset, rowBytes, mask, invert);
+
+                assertEquals(expected, actual, rowBytes + " bytes at offset " + offset);
+                assertEquals(0, actual.position(), "absolute access only");
+            }
+        }
+    }
+
+    @Test
+    void invertMatches() {
+        RowKernels vector = vectorKernels();
+        RowKernels scalar = new ScalarRowKernels();
+        SplittableRandom random = new SplittableRandom(3);
+        for (int length = 0; length < 300; length++) {
+            for (int offset : new int[] {0, 1, 5, 32}) {
+                byte[] expected = randomArray(random, offset + length + 7);
+                byte[] actual = expected.clone();
+
+                scalar.invert(expected, offset, length);
+                vector.invert(actual, offset, length);
+
+                assertArrayEquals(expected, actual, length + " bytes at offset " + offset);
+            }
+        }
+    }
+
+    @Test
+    void extractColumnMatchesPixels() {
+        BmpImage image = TestImages.random(77, 1000, 1, 4, true);
+        long[] bits = new long[16];
+
+        int count = RowKernels.INSTANCE.extractColumn(image, 76, bits, 64, 1000);
+
+        int expected = 0;
+        for (int y = 0; y < 1000; y++) {
+            boolean white = y >= 64 && image.getPixel(76, y) == 1;
+            assertEquals(white, (bits[y >>> 6] & (1L << y)) != 0, "row " + y);
+            expected += white ? 1 : 0;
+        }
+        assertEquals(expected, count);
+    }
+
+    private static RowKernels vectorKernels() {
+        assumeTrue(VECTOR_API, "jdk.incubator.vector is not in the boot layer");
+        return new VectorRowKernels();
+    }
+
+    private static ByteBuffer randomBuffer(SplittableRandom random, int size, boolean direct) {
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        return buffer.put(0, randomArray(random, size));
+    }
+
+    private static byte[] randomArray(SplittableRandom random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
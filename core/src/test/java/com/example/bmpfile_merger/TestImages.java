@@ -0,0 +1,80 @@
+package com.example.bmpfile_merger;
+
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Random test images and a reference merge that follows the merge rule pixel by pixel.
+ */
+final class TestImages {
+
+    private TestImages() {
+    }
+
+    /**
+     * Creates an image of random runs of black and white pixels. The padding bits are random too,
+     * as in files from writers that do not clear them.
+     * @param maxRun The longest run; 1 gives independent random pixels.
+     * @param inverted True for a white-first palette.
+     */
+    static BmpImage random(int width, int height, int maxRun, long seed, boolean inverted) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int paddedRowSize = BmpImage.paddedRowSize(width);
+        byte[] pixels = new byte[paddedRowSize * height];
+        random.nextBytes(pixels);
+        for (int row = 0; row < height; row++) {
+            int bit = random.nextInt(2);
+            for (int x = 0; x < width; ) {
+                int run = Math.min(width - x, 1 + random.nextInt(maxRun));
+                for (int end = x + run; x < end; x++) {
+                    int index = row * paddedRowSize + (x >> 3);
+                    int mask = 0x80 >>> (x & 7);
+                    pixels[index] = (byte) (bit != 0 ? pixels[index] | mask : pixels[index] & ~mask);
+                }
+                bit ^= 1;
+            }
+        }
+        return new BmpImage(width, height, ByteBuffer.wrap(pixels), inverted);
+    }
+
+    /**
+     * Merges the way the rule is stated: walking down file1, a row whose last pixel is white
+     * takes the next line of file2 (cyclically), any other row keeps its own pixels.
+     * @return The merged image, black-first.
+     */
+    static BmpImage referenceMerge(BmpImage file1Bmp, BmpImage file2Bmp) {
+        int width = file2Bmp.width;
+        int height = file1Bmp.height;
+        BmpImage merged = new BmpImage(width, height, new byte[BmpImage.paddedRowSize(width) * height]);
+        int file2Line = 0;
+        for (int y = 0; y < height; y++) {
+            boolean fromFile2 = file1Bmp.getPixel(file1Bmp.width - 1, y) == 1;
+            BmpImage source = fromFile2 ? file2Bmp : file1Bmp;
+            int sourceRow = fromFile2 ? file2Line++ % file2Bmp.height : y;
+            for (int x = 0; x < width; x++) {
+                if (source.getPixel(x, sourceRow) == 1) {
+                    int index = merged.rowOffset(y) + (x >> 3);
+                    merged.pixelData.put(index, (byte) (merged.pixelData.get(index) | (0x80 >>> (x & 7))));
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Compares two images pixel by pixel, taking their palettes into account.
+     */
+    static void assertSamePixels(BmpImage expected, BmpImage actual) {
+        assertEquals(expected.width, actual.width, "width");
+        assertEquals(expected.height, actual.height, "height");
+        for (int y = 0; y < expected.height; y++) {
+            for (int x = 0; x < expected.width; x++) {
+                if (expected.getPixel(x, y) != actual.getPixel(x, y)) {
+                    assertEquals(expected.getPixel(x, y), actual.getPixel(x, y), "pixel (" + x + ", " + y + ")");
+                }
+            }
+        }
+    }
+}
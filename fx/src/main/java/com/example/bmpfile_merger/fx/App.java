@@ -0,0 +1,15 @@
+package com.example.bmpfile_merger.fx;
+
+/**
+ * Entry point of the UI jar. Headless merging lives in the cli module: run it with
+ * {@code java -m com.example.bmpfile_merger.cli/com.example.bmpfile_merger.cli.MergeCli} or the
+ * bmpmerge launcher of its runtime image.
+ */
+public class App {
+    private App() {
+    }
+
+    public static void main(String[] args) {
+        HelloApplication.main(args);
+    }
+}
@@ -0,0 +1,585 @@
+package com.example.bmpfile_merger.fx;
+
+import com.example.bmpfile_merger.BmpImage;
+import com.example.bmpfile_merger.BmpMerger;
+import com.example.bmpfile_merger.IncrementalMerge;
+import com.example.bmpfile_merger.MergeMetrics;
+import com.example.bmpfile_merger.MergeMonitor;
+import com.example.bmpfile_merger.MergeSchedule;
+import com.example.bmpfile_merger.OutputFormat;
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
+import javafx.event.EventHandler;
+import javafx.fxml.FXML;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.image.ImageView; // Added ImageView import
+import javafx.scene.input.MouseEvent;
+import javafx.stage.FileChooser;
+import javafx.stage.Stage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BmpOneBitImageMergerController {
+
+    private static final System.Logger LOG = System.getLogger(BmpOneBitImageMergerController.class.getName());
+
+    @FXML private Button saveButton;
+    @FXML private Button cancelButton;
+    @FXML private ImageView mergedImageView;
+    @FXML private Label statusLabel;
+    @FXML private ProgressBar progressBar;
+
+    // Store the loaded BMP images as custom BmpImage objects
+    private BmpImage file1Bmp; // Corresponds to 'bodyImage' in original context, but now file1.bmp
+    private BmpImage file2Bmp; // Corresponds to 'borderImage' in original context, but now file2.bmp
+
+    // Bumped whenever a new file is picked, so results computed from older inputs can be discarded
+    private int file1Version;
+    private int file2Version;
+
+    // Store the merged image, already in packed 1bpp BMP layout, for saving
+    private BmpImage currentMergedImage;
+    // The last merge and its overview, updated in place when only one of the inputs changes
+    private IncrementalMerge lastMerge;
+    private PreviewRenderer.Overview overview;
+    private boolean zoomedIn; // Whether the preview shows a full-resolution tile instead of the whole image
+
+    // File I/O and merging run here, one task at a time, so the FX application thread never blocks
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bmp-merger-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Task<?> runningTask; // The task shown in the progress bar, if any
+    private MergeTask runningMerge;
+
+    // Stage timings of this session, logged after each save
+    private final MergeMetrics metrics = new MergeMetrics();
+
+    private Stage primaryStage;
+
+    /**
+     * Called by the FXMLLoader; the fields are injected afterwards.
+     */
+    public BmpOneBitImageMergerController() {
+    }
+
+    public void setPrimaryStage(Stage stage) {
+        this.primaryStage = stage;
+    }
+
+    /**
+     * Handles selecting file1.bmp (referred to as "Body Image" in the UI).
+     */
+    @FXML
+    private void handleSelectBodyImage() {
+        File file = chooseImageFile("Select File1.bmp (Body Image)");
+        if (file != null) {
+            int version = ++file1Version;
+            file1Bmp = null;
+            cancelMerge(); // Its result would be stale
+
+            Task<BmpImage> task = loadTask(file);
+            task.setOnSucceeded(event -> {
+                if (version == file1Version) {
+                    file1Bmp = task.getValue();
+                    statusLabel.setText("File1.bmp Loaded: " + file.getName() + " (Dim: " + file1Bmp.width + "x" + file1Bmp.height + ")");
+                }
+            });
+            task.setOnFailed(event -> {
+                if (version == file1Version) {
+                    showAlert("Error Loading Image", "Could not read File1.bmp. Please ensure it's a valid 1-bit BMP file.\n" + task.getException().getMessage());
+                }
+            });
+            runInBackground(task, "Loading " + file.getName() + "...", false);
+        }
+    }
+
+    /**
+     * Handles selecting file2.bmp (referred to as "Border Image" in the UI).
+     */
+    @FXML
+    private void handleSelectBorderImage() {
+        File file = chooseImageFile("Select File2.bmp (Border Image)");
+        if (file != null) {
+            int version = ++file2Version;
+            file2Bmp = null;
+            cancelMerge(); // Its result would be stale
+
+            Task<BmpImage> task = loadTask(file);
+            task.setOnSucceeded(event -> {
+                if (version == file2Version) {
+                    file2Bmp = task.getValue();
+                    statusLabel.setText("File2.bmp Loaded: " + file.getName() + " (Dim: " + file2Bmp.width + "x" + file2Bmp.height + ")");
+                }
+            });
+            task.setOnFailed(event -> {
+                if (version == file2Version) {
+                    showAlert("Error Loading Image", "Could not read File2.bmp. Please ensure it's a valid 1-bit BMP file.\n" + task.getException().getMessage());
+                }
+            });
+            runInBackground(task, "Loading " + file.getName() + "...", false);
+        }
+    }
+
+    private Task<BmpImage> loadTask(File file) {
+        return new Task<>() {
+            @Override
+            protected BmpImage call() throws IOException {
+                try (MergeMetrics.StageTimer timer = metrics.start(MergeMetrics.Stage.READ, file.getName())) {
+                    BmpImage image = BmpImage.map(file);
+                    timer.bytes(image.pixelData.capacity());
+                    return image;
+                }
+            }
+        };
+    }
+
+    /**
+     * Handles the merging logic based on the specified requirements.
+     */
+
+    @FXML
+    private void handleMergeImages() {
+        if (file1Bmp == null) {
+            showAlert("Error", "Please select File1.bmp first.");
+            return;
+        }
+        if (file2Bmp == null) {
+            showAlert("Error", "Please select File2.bmp first.");
+            return;
+        }
+
+        cancelMerge();
+        if (lastMerge != null && lastMerge.file1() == file1Bmp && lastMerge.file2() == file2Bmp) {
+            statusLabel.setText("Images already merged. Click 'Save' to convert to 1-bit BMP.");
+            return;
+        }
+        int version1 = file1Version;
+        int version2 = file2Version;
+        MergeTask task = new MergeTask(file1Bmp, file2Bmp, lastMerge, overview, previewWidth(), metrics);
+        if (task.updatesInPlace()) {
+            saveButton.setVisible(false); // The merged image is being rewritten
+        }
+        task.setOnSucceeded(event -> {
+            if (task != runningMerge || version1 != file1Version || version2 != file2Version) {
+                return; // Inputs changed while merging
+            }
+            runningMerge = null;
+            MergeOutcome outcome = task.getValue();
+            lastMerge = outcome.merge();
+            overview = outcome.overview();
+            currentMergedImage = lastMerge.image();
+            if (outcome.changedPreviewRows() != null) {
+                overview.publish(outcome.changedPreviewRows());
+            }
+            // Show the preview downsampled to the displayed size; clicking it zooms to full resolution
+            mergedImageView.setImage(overview.image());
+            zoomedIn = false;
+            statusLabel.setText("Images merged. Click 'Save' to convert to 1-bit BMP.");
+            saveButton.setVisible(true);
+        });
+        task.setOnFailed(event -> {
+            if (task.updatesInPlace()) {
+                discardMerge(); // Left half-written
+            }
+            if (task == runningMerge) {
+                runningMerge = null;
+                // 1. Width condition failures end up here as well
+                showAlert("Error", task.getException().getMessage());
+            }
+        });
+        task.setOnCancelled(event -> {
+            if (task == runningMerge) {
+                runningMerge = null;
+            }
+        });
+        runningMerge = task;
+        runInBackground(task, "Merging...", true);
+    }
+
+    /**
+     * Handles the cancel button: stops the running merge.
+     */
+    @FXML
+    private void handleCancel() {
+        cancelMerge();
+    }
+
+    private void cancelMerge() {
+        if (runningMerge != null) {
+            runningMerge.cancel();
+            if (runningMerge.updatesInPlace()) {
+                discardMerge(); // May be left half-written
+            }
+            runningMerge = null;
+        }
+    }
+
+    /**
+     * Forgets the merged image, so that the next merge starts from scratch.
+     */
+    private void discardMerge() {
+        lastMerge = null;
+        overview = null;
+        currentMergedImage = null;
+        mergedImageView.setImage(null);
+        saveButton.setVisible(false);
+    }
+
+    /**
+     * Handles clicks on the preview: the overview zooms to a full-resolution tile around the
+     * clicked point, and a tile goes back to the overview.
+     */
+    @FXML
+    private void handlePreviewClicked(MouseEvent event) {
+        if (currentMergedImage == null || runningMerge != null) {
+            return; // Nothing to show, or the merged image is being rewritten
+        }
+        if (zoomedIn) {
+            if (overview != null && overview.shows(currentMergedImage, previewWidth())) {
+                showOverview(overview);
+            } else {
+                renderOverview(); // The window moved to a screen with another scale
+            }
+            return;
+        }
+
+        // Map the click from displayed coordinates to merged image pixels
+        double displayedWidth = mergedImageView.getLayoutBounds().getWidth();
+        double displayedHeight = mergedImageView.getLayoutBounds().getHeight();
+        int x = (int) (event.getX() / displayedWidth * currentMergedImage.width);
+        int y = (int) (event.getY() / displayedHeight * currentMergedImage.height);
+
+        int tileWidth = (int) mergedImageView.getFitWidth();
+        mergedImageView.setImage(PreviewRenderer.tile(currentMergedImage, x, y, tileWidth, tileWidth * 3 / 4));
+        zoomedIn = true;
+        statusLabel.setText("Zoomed to full resolution around (" + x + ", " + y + "). Click the preview to go back.");
+    }
+
+    private void showOverview(PreviewRenderer.Overview shown) {
+        overview = shown;
+        mergedImageView.setImage(shown.image());
+        zoomedIn = false;
+        statusLabel.setText("Showing the whole merged image. Click the preview to zoom in.");
+    }
+
+    /**
+     * Renders the overview again at the current preview width on the worker thread. Later
+     * in-place merges refresh it like the one rendered after the merge.
+     */
+    private void renderOverview() {
+        BmpImage image = currentMergedImage;
+        int width = previewWidth();
+        Task<PreviewRenderer.Overview> task = new Task<>() {
+            @Override
+            protected PreviewRenderer.Overview call() {
+                try (MergeMetrics.StageTimer timer = metrics.start(MergeMetrics.Stage.PREVIEW, "File1.bmp")) {
+                    timer.bytes(image.pixelData.capacity());
+                    return new PreviewRenderer.Overview(image, width);
+                }
+            }
+        };
+        task.setOnSucceeded(event -> {
+            if (image == currentMergedImage && runningMerge == null && zoomedIn) {
+                showOverview(task.getValue());
+            }
+        });
+        task.setOnFailed(event -> showAlert("Error", "Could not render the preview: " + task.getException().getMessage()));
+        runInBackground(task, "Building preview...", false);
+    }
+
+    /**
+     * @return The width of the preview in device pixels.
+     */
+    private int previewWidth() {
+        double outputScale = mergedImageView.getScene() != null && mergedImageView.getScene().getWindow() != null
+                ? mergedImageView.getScene().getWindow().getOutputScaleX() : 1.0;
+        return (int) Math.ceil(mergedImageView.getFitWidth() * outputScale);
+    }
+
+    /**
+     * Handles saving the merged image as a 1bpp BMP file, or as PBM or Group 4 TIFF if the
+     * chosen file name has that extension.
+     */
+    @FXML
+    private void handleSaveImage() {
+        if (currentMergedImage == null || currentMergedImage.width == 0 || currentMergedImage.height == 0) {
+            showAlert("Error", "No merged image to save. Please merge images first.");
+            return;
+        }
+
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Save Merged 1-bit BMP");
+        fileChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("BMP Image", "*.bmp"),
+                new FileChooser.ExtensionFilter("PBM Image", "*.pbm"),
+                new FileChooser.ExtensionFilter("TIFF Image (Group 4)", "*.tif", "*.tiff"));
+        File outputFile = fileChooser.showSaveDialog(primaryStage);
+
+        if (outputFile != null) {
+            BmpImage image = currentMergedImage;
+            OutputFormat format = OutputFormat.forFileName(outputFile.getName());
+            Task<Void> task = new Task<>() {
+                @Override
+                protected Void call() throws IOException {
+                    try (MergeMetrics.StageTimer timer = metrics.start(MergeMetrics.Stage.WRITE, outputFile.getName())) {
+                        image.write(outputFile, format);
+                        timer.bytes(outputFile.length());
+                    }
+                    System.out.println("Image saved: " + outputFile.getAbsolutePath());
+                    if (format == OutputFormat.BMP) {
+                        verifyBmpHeader(outputFile); // Verify the header of the saved file
+                    }
+                    LOG.log(System.Logger.Level.INFO, metrics::summary);
+                    return null;
+                }
+            };
+            task.setOnSucceeded(event -> statusLabel.setText("Image saved: " + outputFile.getAbsolutePath()));
+            task.setOnFailed(event -> {
+                Throwable ex = task.getException();
+                statusLabel.setText("Error saving BMP: " + ex.getMessage());
+                showAlert("Error", "Error saving BMP: " + ex.getMessage());
+                ex.printStackTrace();
+            });
+            runInBackground(task, "Saving " + outputFile.getName() + "...", false);
+        }
+    }
+
+    /**
+     * Runs a task on the worker thread, showing its progress and messages until it ends.
+     * The task's own handlers decide what to show once it is done.
+     * @param task The task to run.
+     * @param message The status shown until the task reports its own messages.
+     * @param cancellable Whether the cancel button is offered.
+     */
+    private void runInBackground(Task<?> task, String message, boolean cancellable) {
+        statusLabel.textProperty().unbind();
+        statusLabel.setText(message);
+        progressBar.progressProperty().unbind();
+        progressBar.progressProperty().bind(task.progressProperty());
+        progressBar.setVisible(true);
+        cancelButton.setVisible(cancellable);
+        runningTask = task;
+
+        task.messageProperty().addListener((observable, oldMessage, newMessage) -> {
+            if (task == runningTask && !newMessage.isEmpty()) {
+                statusLabel.setText(newMessage);
+            }
+        });
+        EventHandler<WorkerStateEvent> onSucceeded = task.getOnSucceeded();
+        EventHandler<WorkerStateEvent> onFailed = task.getOnFailed();
+        EventHandler<WorkerStateEvent> onCancelled = task.getOnCancelled();
+        task.setOnSucceeded(event -> finish(task, onSucceeded, event));
+        task.setOnFailed(event -> finish(task, onFailed, event));
+        task.setOnCancelled(event -> {
+            if (task == runningTask) {
+                statusLabel.setText("Cancelled.");
+            }
+            finish(task, onCancelled, event);
+        });
+
+        worker.submit(task);
+    }
+
+    private void finish(Task<?> task, EventHandler<WorkerStateEvent> handler, WorkerStateEvent event) {
+        if (task == runningTask) {
+            runningTask = null;
+            progressBar.progressProperty().unbind();
+            progressBar.setVisible(false);
+            cancelButton.setVisible(false);
+        }
+        if (handler != null) {
+            handler.handle(event);
+        }
+    }
+
+    /**
+     * The result of a background merge: the merge and its overview preview.
+     * @param changedPreviewRows The overview rows that were rendered again and still have to be
+     *                           published, or null if the overview is new.
+     */
+    private record MergeOutcome(IncrementalMerge merge, PreviewRenderer.Overview overview, BitSet changedPreviewRows) {
+    }
+
+    /**
+     * Merges two images off the FX application thread, with row-level progress and cancellation.
+     * If the previous merge shares one of the inputs, it is updated in place instead.
+     */
+    private static class MergeTask extends Task<MergeOutcome> implements MergeMonitor {
+        private final BmpImage file1Bmp;
+        private final BmpImage file2Bmp;
+        private final IncrementalMerge previous;
+        private final PreviewRenderer.Overview previousOverview;
+        private final int previewWidth;
+        private final MergeMetrics metrics;
+        private final AtomicLong rowsDone = new AtomicLong();
+
+        /**
+         * @param previous The previous merge, or null. Only used if it shares one of the inputs.
+         * @param previousOverview The overview of the previous merge, or null.
+         */
+        MergeTask(BmpImage file1Bmp, BmpImage file2Bmp, IncrementalMerge previous, PreviewRenderer.Overview previousOverview,
+                  int previewWidth, MergeMetrics metrics) {
+            this.file1Bmp = file1Bmp;
+            this.file2Bmp = file2Bmp;
+            boolean sameBody = previous != null && previous.file1() == file1Bmp && previous.canReplaceBorder(file2Bmp);
+            boolean sameBorder = previous != null && previous.file2() == file2Bmp && previous.canReplaceBody(file1Bmp);
+            this.previous = sameBody || sameBorder ? previous : null;
+            this.previousOverview = previousOverview;
+            this.previewWidth = previewWidth;
+            this.metrics = metrics;
+        }
+
+        /**
+         * @return True if the task rewrites the pixels of the previous merge.
+         */
+        boolean updatesInPlace() {
+            return previous != null;
+        }
+
+        @Override
+        protected MergeOutcome call() {
+            BmpMerger.checkWidths(file1Bmp, file2Bmp);
+
+            IncrementalMerge merge;
+            if (previous != null && previous.file1() == file1Bmp) {
+                updateMessage("Merging the rows taken from File2.bmp...");
+                try (MergeMetrics.StageTimer timer = metrics.start(MergeMetrics.Stage.MERGE, "File1.bmp")) {
+                    merge = previous.withBorder(file2Bmp, this);
+                    timer.bytes((long) merge.changedRows().cardinality() * merge.image().paddedRowSize);
+                }
+            } else {
+                updateMessage("Scanning File1.bmp...");
+                MergeSchedule schedule;
+                try (MergeMetrics.StageTimer timer = metrics.start(MergeMetrics.Stage.SCAN, "File1.bmp")) {
+                    schedule = MergeSchedule.scan(file1Bmp);
+                    timer.bytes(file1Bmp.height);
+                }
+
+                updateMessage("Merging " + file1Bmp.height + " rows...");
+                try (MergeMetrics.StageTimer timer = metrics.start(MergeMetrics.Stage.MERGE, "File1.bmp")) {
+                    merge = previous != null
+                            ? previous.withBody(file1Bmp, schedule, this)
+                            : IncrementalMerge.merge(file1Bmp, file2Bmp, schedule, this);
+                    timer.bytes((long) merge.changedRows().cardinality() * merge.image().paddedRowSize);
+                }
+            }
+            BitSet changedBorderRows = merge.schedule().borderRowSet();
+            changedBorderRows.and(merge.changedRows());
+            int borderRows = changedBorderRows.cardinality();
+            metrics.addRows(merge.changedRows().cardinality() - borderRows, borderRows);
+
+            updateMessage("Building preview...");
+            try (MergeMetrics.StageTimer timer = metrics.start(MergeMetrics.Stage.PREVIEW, "File1.bmp")) {
+                BmpImage merged = merge.image();
+                if (previous != null && previousOverview != null && previousOverview.shows(merged, previewWidth)) {
+                    timer.bytes((long) merge.changedRows().cardinality() * merged.paddedRowSize);
+                    return new MergeOutcome(merge, previousOverview, previousOverview.render(merge.changedRows()));
+                }
+                timer.bytes(merged.pixelData.capacity());
+                return new MergeOutcome(merge, new PreviewRenderer.Overview(merged, previewWidth), null);
+            }
+        }
+
+        @Override
+        public void rowsMerged(int rows) {
+            updateProgress(rowsDone.addAndGet(rows), file1Bmp.height);
+        }
+    }
+
+    /**
+     * Helper method to open a file chooser dialog.
+     * @param title The title for the file chooser dialog.
+     * @return The selected File, or null if cancelled.
+     */
+    private File chooseImageFile(String title) {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle(title);
+        fileChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("BMP Image", "*.bmp"),
+                new FileChooser.ExtensionFilter("All Files", "*.*")
+        );
+        return fileChooser.showOpenDialog(primaryStage);
+    }
+
+    /**
+     * Displays an alert dialog.
+     * @param title The title of the alert.
+     * @param message The message content of the alert.
+     */
+    private void showAlert(String title, String message) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle(title);
+        alert.setHeaderText(null);
+        alert.setContentText(message);
+        alert.showAndWait();
+    }
+
+    /**
+     * Verifies the header of a saved BMP file to ensure it's 1bpp.
+     * This is a utility for debugging and confirmation.
+     * @param bmpFile The BMP file to verify.
+     */
+    private void verifyBmpHeader(File bmpFile) {
+        try {
+            byte[] header = new byte[54]; // Standard BMP header size
+            try (FileInputStream fis = new FileInputStream(bmpFile)) {
+                if (fis.read(header) != 54) {
+                    System.err.println("Error: Could not read full BMP header for verification.");
+                    return;
+                }
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+
+            String signature = new String(new byte[]{buffer.get(0), buffer.get(1)});
+            int fileSize = buffer.getInt(2);
+            int pixelDataOffset = buffer.getInt(10);
+            int infoHeaderSize = buffer.getInt(14);
+            int width = buffer.getInt(18);
+            int height = buffer.getInt(22);
+            short bitsPerPixel = buffer.getShort(28);
+            int compression = buffer.getInt(30);
+            int colorsUsed = buffer.getInt(46);
+
+            System.out.println("\n--- BMP Header Verification for: " + bmpFile.getName() + " ---");
+            System.out.println("Signature (BF Type): " + signature);
+            System.out.println("File Size: " + fileSize + " bytes (Expected: " + bmpFile.length() + ")");
+            System.out.println("Pixel Data Offset: " + pixelDataOffset);
+            System.out.println("Info Header Size (biSize): " + infoHeaderSize);
+            System.out.println("Width (biWidth): " + width);
+            System.out.println("Height (biHeight): " + height);
+            System.out.println("Bits Per Pixel (biBitCount): " + bitsPerPixel);
+            System.out.println("Compression (biCompression): " + compression + " (0 = BI_RGB)");
+            System.out.println("Colors Used (biClrUsed): " + colorsUsed);
+            System.out.println("----------------------------------------------");
+
+            if (!"BM".equals(signature)) {
+                System.err.println("WARNING: BMP signature is not 'BM'.");
+            }
+            if (bitsPerPixel != 1) {
+                System.err.println("WARNING: Output BMP is not 1-bit per pixel. Found: " + bitsPerPixel);
+            }
+            if (colorsUsed != 2) {
+                System.err.println("WARNING: Expected 2 colors in palette for 1-bit BMP. Found: " + colorsUsed);
+            }
+            if (compression != 0) {
+                System.err.println("WARNING: BMP is compressed. Expected uncompressed (BI_RGB).");
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading BMP header for verification: " + e.getMessage());
+        }
+    }
+}
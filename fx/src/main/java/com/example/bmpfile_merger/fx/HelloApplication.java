@@ -1,4 +1,4 @@
-package com.example.bmpfile_merger;
+package com.example.bmpfile_merger.fx;
 
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
@@ -8,6 +8,12 @@ import javafx.stage.Stage;
 import java.io.IOException;
 
 public class HelloApplication extends Application {
+    /**
+     * Called by the JavaFX launcher.
+     */
+    public HelloApplication() {
+    }
+
     @Override
     public void start(Stage stage) throws IOException {
         FXMLLoader fxmlLoader = new FXMLLoader(HelloApplication.class.getResource("hello-view.fxml"));
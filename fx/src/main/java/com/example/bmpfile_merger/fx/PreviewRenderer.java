@@ -0,0 +1,120 @@
+package com.example.bmpfile_merger.fx;
+
+import com.example.bmpfile_merger.BmpImage;
+import com.example.bmpfile_merger.PreviewSampler;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * Builds JavaFX preview images from packed 1bpp images with a single bulk
+ * {@code setPixels} call over a byte-indexed gray palette.
+ */
+final class PreviewRenderer {
+
+    /** Largest preview edge; keeps the texture within what graphics cards accept. */
+    static final int MAX_PREVIEW_SIZE = 8192;
+
+    private static final PixelFormat<ByteBuffer> GRAY = createGrayFormat();
+
+    private PreviewRenderer() {
+    }
+
+    private static PixelFormat<ByteBuffer> createGrayFormat() {
+        int[] colors = new int[256];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = 0xFF000000 | (i << 16) | (i << 8) | i;
+        }
+        return PixelFormat.createByteIndexedInstance(colors);
+    }
+
+    /**
+     * An overview of the whole image, downsampled to fit the displayed width and keeping its
+     * aspect ratio. It keeps its gray raster, so that it can be refreshed row by row after the
+     * image was updated in place.
+     */
+    static final class Overview {
+        private final BmpImage image;
+        private final int maxWidth;
+        private final int width;
+        private final int height;
+        private final byte[] gray;
+        private final WritableImage fxImage;
+
+        /**
+         * Renders the whole image downsampled to fit the given width.
+         * @param image The merged image.
+         * @param maxWidth The width the preview is displayed at, in device pixels. The overview is
+         *                 no wider than that and no larger than {@link #MAX_PREVIEW_SIZE}.
+         */
+        Overview(BmpImage image, int maxWidth) {
+            double scale = Math.min(1.0, Math.min((double) maxWidth / image.width, (double) MAX_PREVIEW_SIZE / image.height));
+            this.image = image;
+            this.maxWidth = maxWidth;
+            this.width = Math.max(1, (int) Math.round(image.width * scale));
+            this.height = Math.max(1, (int) Math.round(image.height * scale));
+            this.gray = PreviewSampler.render(image, 0, 0, image.width, image.height, width, height);
+            this.fxImage = new WritableImage(width, height);
+            fxImage.getPixelWriter().setPixels(0, 0, width, height, GRAY, gray, 0, width);
+        }
+
+        /**
+         * @return True if this overview shows the given image at the given width, so it can be refreshed.
+         */
+        boolean shows(BmpImage image, int maxWidth) {
+            return this.image == image && this.maxWidth == maxWidth;
+        }
+
+        /**
+         * Renders the raster rows covering changed image rows again. Only touches the raster,
+         * so it may run off the FX application thread; {@link #publish} shows the result.
+         * @param changedRows The changed rows of the image, top-down.
+         * @return The raster rows to publish.
+         */
+        BitSet render(BitSet changedRows) {
+            return PreviewSampler.renderChangedRows(image, 0, 0, image.width, image.height, width, height, gray, changedRows);
+        }
+
+        /**
+         * Copies rendered raster rows into the displayed image, one bulk call per run of rows.
+         * Must run on the FX application thread.
+         */
+        void publish(BitSet rows) {
+            for (int from = rows.nextSetBit(0); from >= 0; from = rows.nextSetBit(from)) {
+                int to = rows.nextClearBit(from);
+                fxImage.getPixelWriter().setPixels(0, from, width, to - from, GRAY, gray, from * width, width);
+                from = to;
+            }
+        }
+
+        WritableImage image() {
+            return fxImage;
+        }
+    }
+
+    /**
+     * Renders a tile of the image at full resolution (1 image pixel per preview pixel).
+     * @param image The merged image.
+     * @param centerX The image column the tile is centered on.
+     * @param centerY The image row the tile is centered on.
+     * @param width The width of the tile, clamped to the image.
+     * @param height The height of the tile, clamped to the image.
+     * @return The tile.
+     */
+    static WritableImage tile(BmpImage image, int centerX, int centerY, int width, int height) {
+        width = Math.min(width, image.width);
+        height = Math.min(height, image.height);
+        int x = Math.max(0, Math.min(image.width - width, centerX - width / 2));
+        int y = Math.max(0, Math.min(image.height - height, centerY - height / 2));
+        return region(image, x, y, width, height, width, height);
+    }
+
+    private static WritableImage region(BmpImage image, int x, int y, int srcWidth, int srcHeight, int width, int height) {
+        byte[] gray = PreviewSampler.render(image, x, y, srcWidth, srcHeight, width, height);
+        WritableImage fxImage = new WritableImage(width, height);
+        fxImage.getPixelWriter().setPixels(0, 0, width, height, GRAY, gray, 0, width);
+        return fxImage;
+    }
+}
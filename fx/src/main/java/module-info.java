@@ -0,0 +1,8 @@
+module com.example.bmpfile_merger.fx {
+    requires transitive javafx.controls; // Stage and Application appear in the exported classes
+    requires javafx.fxml;
+    requires com.example.bmpfile_merger.core;
+
+    opens com.example.bmpfile_merger.fx to javafx.fxml;
+    exports com.example.bmpfile_merger.fx;
+}
@@ -1,7 +0,0 @@
-package com.example.bmpfile_merger;
-
-public class App {
-    public static void main(String[] args) {
-        HelloApplication.main(args);
-    }
-}